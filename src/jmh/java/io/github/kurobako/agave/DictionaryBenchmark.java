@@ -0,0 +1,129 @@
+package io.github.kurobako.agave;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.kurobako.agave.Dictionary.dictionary;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DictionaryBenchmark {
+
+  @Param({"16", "1024", "65536"})
+  public int size;
+
+  @Param({"SEQUENTIAL", "RANDOM", "COLLIDING"})
+  public Distribution distribution;
+
+  private Dictionary<Object, Object> dict;
+  private Object[] present;
+  private Object[] absent;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    final Random random = new Random(size);
+    present = new Object[size];
+    absent = new Object[size];
+    for (int i = 0; i < size; i++) {
+      present[i] = distribution.key(2 * i, random);
+      absent[i] = distribution.key(2 * i + 1, random);
+    }
+    dict = dictionary();
+    for (Object key : present) dict = dict.insert(key, key);
+    next = 0;
+  }
+
+  private int index() {
+    final int result = next;
+    next = (result + 1 == size) ? 0 : result + 1;
+    return result;
+  }
+
+  @Benchmark
+  public Dictionary<Object, Object> insert() {
+    final Object key = absent[index()];
+    return dict.insert(key, key);
+  }
+
+  @Benchmark
+  public Dictionary<Object, Object> replace() {
+    final Object key = present[index()];
+    return dict.insert(key, key);
+  }
+
+  @Benchmark
+  public Object lookupHit() {
+    return dict.lookupNullable(present[index()]);
+  }
+
+  @Benchmark
+  public Object lookupMiss() {
+    return dict.lookupNullable(absent[index()]);
+  }
+
+  @Benchmark
+  public Dictionary<Object, Object> delete() {
+    return dict.delete(present[index()]);
+  }
+
+  public enum Distribution {
+    SEQUENTIAL {
+      @Override
+      Object key(int ordinal, Random random) {
+        return ordinal;
+      }
+    },
+    RANDOM {
+      @Override
+      Object key(int ordinal, Random random) {
+        return new Key(ordinal, random.nextInt());
+      }
+    },
+    COLLIDING {
+      @Override
+      Object key(int ordinal, Random random) {
+        return new Key(ordinal, ordinal & 7);
+      }
+    };
+
+    abstract Object key(int ordinal, Random random);
+  }
+
+  static final class Key {
+    private final int ordinal;
+    private final int hash;
+
+    Key(int ordinal, int hash) {
+      this.ordinal = ordinal;
+      this.hash = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Key && ((Key) o).ordinal == ordinal;
+    }
+  }
+
+}
@@ -0,0 +1,116 @@
+package io.github.kurobako.agave;
+
+import io.github.kurobako.agave.ringbuffer.Consume;
+import io.github.kurobako.agave.ringbuffer.Consumer;
+import io.github.kurobako.agave.ringbuffer.RingBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBufferBenchmark {
+  private static final int OPERATIONS = 1 << 20;
+
+  @Param({"1024", "65536"})
+  public int bufferSize;
+
+  @Param({"1", "2", "4"})
+  public int producers;
+
+  @Param({"1", "2", "4"})
+  public int consumers;
+
+  @Param({"1", "16"})
+  public int batch;
+
+  @Param({"false", "true"})
+  public boolean batchedPublish;
+
+  private RingBuffer<Long> buffer;
+  private Consumer<Long>[] subscribers;
+  private ExecutorService producerThreads;
+  private ExecutorService consumerThreads;
+  private List<Callable<Void>> publishers;
+  private volatile boolean running;
+  private long published;
+
+  @Setup(Level.Trial)
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    if (producers == 1) buffer = RingBuffer.singleProducer(bufferSize);
+    else buffer = batchedPublish ? RingBuffer.multiProducerBatched(bufferSize) : RingBuffer.multiProducer(bufferSize);
+    final Long value = 42L;
+    final int perProducer = OPERATIONS / producers;
+    publishers = new ArrayList<>(producers);
+    for (int i = 0; i < producers; i++) {
+      publishers.add(() -> {
+        for (int sent = 0; sent < perProducer; sent += batch) {
+          final long to = buffer.claim(batch);
+          final long from = to - batch + 1;
+          for (long token = from; token <= to; token++) buffer.write(token, value);
+          buffer.publish(from, to);
+        }
+        return null;
+      });
+    }
+    subscribers = new Consumer[consumers];
+    for (int i = 0; i < consumers; i++) subscribers[i] = buffer.subscribe();
+    running = true;
+    producerThreads = Executors.newFixedThreadPool(producers);
+    consumerThreads = Executors.newFixedThreadPool(consumers);
+    final Consume<Long> consume = (data, more) -> true;
+    for (Consumer<Long> subscriber : subscribers) {
+      consumerThreads.execute(() -> {
+        while (running) {
+          if (subscriber.consume(consume) != Consumer.State.WORKING) Thread.yield();
+        }
+      });
+    }
+    published = -1L;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException {
+    running = false;
+    producerThreads.shutdown();
+    consumerThreads.shutdown();
+    producerThreads.awaitTermination(1, TimeUnit.MINUTES);
+    consumerThreads.awaitTermination(1, TimeUnit.MINUTES);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(OPERATIONS)
+  public long publishAndConsume() throws Exception {
+    for (Future<Void> future : producerThreads.invokeAll(publishers)) future.get();
+    published += OPERATIONS;
+    for (Consumer<Long> subscriber : subscribers) {
+      while (subscriber.cursor().readVolatile() < published) Thread.yield();
+    }
+    return published;
+  }
+
+}
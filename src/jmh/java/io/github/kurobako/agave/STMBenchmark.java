@@ -0,0 +1,61 @@
+package io.github.kurobako.agave;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class STMBenchmark {
+
+  @Param({"4", "64", "1024"})
+  public int refs;
+
+  @Param({"1", "2", "8"})
+  public int refsPerTransaction;
+
+  private List<STM.Ref<Long>> pool;
+
+  @Setup
+  public void setUp() {
+    final STM stm = new STM();
+    pool = new ArrayList<>(refs);
+    for (int i = 0; i < refs; i++) pool.add(stm.ref(0L));
+  }
+
+  @Benchmark
+  public Long transactionally() {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    final List<STM.Ref<Long>> touched = new ArrayList<>(refsPerTransaction);
+    for (int i = 0; i < refsPerTransaction; i++) touched.add(pool.get(random.nextInt(refs)));
+    return touched.get(0).transactionally(value -> {
+      for (int i = 1; i < touched.size(); i++) touched.get(i).alter(v -> v + 1);
+      return touched.get(0).assign(value + 1);
+    });
+  }
+
+  @Benchmark
+  public Long deref() {
+    return pool.get(ThreadLocalRandom.current().nextInt(refs)).deref();
+  }
+
+}
@@ -0,0 +1,75 @@
+package io.github.kurobako.agave;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.kurobako.agave.Sequence.sequence;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SequenceBenchmark {
+  private static final int INDICES = 1024;
+
+  @Param({"8", "1024", "65536"})
+  public int length;
+
+  private Sequence<Integer> left;
+  private Sequence<Integer> right;
+  private int[] indices;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    left = sequence();
+    right = sequence();
+    for (int i = 0; i < length; i++) {
+      left = left.inject(i);
+      right = right.push(i);
+    }
+    final Random random = new Random(length);
+    indices = new int[INDICES];
+    for (int i = 0; i < INDICES; i++) indices[i] = random.nextInt(length);
+    next = 0;
+  }
+
+  @Benchmark
+  public Integer get() {
+    final int idx = indices[next];
+    next = (next + 1) & (INDICES - 1);
+    return left.get(idx);
+  }
+
+  @Benchmark
+  public Sequence<Integer> catenate() {
+    return Sequence.catenate(left, right);
+  }
+
+  @Benchmark
+  public Sequence<Integer> inject() {
+    return left.inject(length);
+  }
+
+  @Benchmark
+  public Sequence<Integer> split() {
+    final int idx = indices[next];
+    next = (next + 1) & (INDICES - 1);
+    return left.split(idx).first();
+  }
+
+}
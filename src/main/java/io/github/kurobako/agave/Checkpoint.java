@@ -0,0 +1,134 @@
+package io.github.kurobako.agave;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static io.github.kurobako.agave.Dictionary.dictionary;
+import static io.github.kurobako.agave.Option.none;
+import static io.github.kurobako.agave.Option.some;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+public final class Checkpoint {
+  private static final int MAGIC = 0x41474350;
+  private static final String SUFFIX = ".checkpoint";
+
+  private final long position;
+  private final @Nonnull Dictionary<String, Object> states;
+
+  private Checkpoint(long position, Dictionary<String, Object> states) {
+    this.position = position;
+    this.states = states;
+  }
+
+  public long position() {
+    return position;
+  }
+
+  public @Nonnull Dictionary<String, Object> states() {
+    return states;
+  }
+
+  public static @Nonnull Path write(Path directory, long position, Dictionary<String, ?> states, Encode encoder) throws IOException {
+    //noinspection ConstantConditions
+    if (directory == null) throw new NullPointerException("directory");
+    //noinspection ConstantConditions
+    if (states == null) throw new NullPointerException("states");
+    //noinspection ConstantConditions
+    if (encoder == null) throw new NullPointerException("encoder");
+    if (position < 0) throw new IllegalArgumentException("position");
+    Files.createDirectories(directory);
+    final Path result = directory.resolve(String.format("%020d", position) + SUFFIX);
+    final Path temporary = Files.createTempFile(directory, null, ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+        out.writeInt(MAGIC);
+        out.writeLong(position);
+        out.writeInt(states.size());
+        ByteBuffer scratch = ByteBuffer.allocate(256);
+        for (Pair<String, ?> entry : states) {
+          while (true) {
+            scratch.clear();
+            try {
+              encoder.encode(entry.first(), entry.second(), scratch);
+              break;
+            } catch (BufferOverflowException e) {
+              scratch = ByteBuffer.allocate(scratch.capacity() << 1);
+            }
+          }
+          out.writeUTF(entry.first());
+          out.writeInt(scratch.position());
+          out.write(scratch.array(), 0, scratch.position());
+        }
+      }
+      Files.move(temporary, result, REPLACE_EXISTING, ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+    return result;
+  }
+
+  public static @Nonnull Checkpoint read(Path file, Decode decoder) throws IOException {
+    //noinspection ConstantConditions
+    if (file == null) throw new NullPointerException("file");
+    //noinspection ConstantConditions
+    if (decoder == null) throw new NullPointerException("decoder");
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC) throw new IOException("Not a checkpoint");
+      final long position = in.readLong();
+      final int size = in.readInt();
+      Dictionary<String, Object> states = dictionary();
+      for (int i = 0; i < size; i++) {
+        final String id = in.readUTF();
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        states = states.insert(id, decoder.decode(id, ByteBuffer.wrap(bytes)));
+      }
+      return new Checkpoint(position, states);
+    }
+  }
+
+  public static @Nonnull Option<Checkpoint> latest(Path directory, Decode decoder) throws IOException {
+    //noinspection ConstantConditions
+    if (directory == null) throw new NullPointerException("directory");
+    if (!Files.isDirectory(directory)) return none();
+    final List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (Path path : stream) files.add(path);
+    }
+    if (files.isEmpty()) return none();
+    return some(read(Collections.max(files), decoder));
+  }
+
+  @Override
+  public String toString() {
+    return "Checkpoint{position=" + position + ", states=" + states + "}";
+  }
+
+  @FunctionalInterface
+  public interface Encode {
+
+    void encode(String id, Object state, ByteBuffer target);
+
+  }
+
+  @FunctionalInterface
+  public interface Decode {
+
+    @Nonnull Object decode(String id, ByteBuffer source);
+
+  }
+
+}
@@ -1,12 +1,34 @@
 package io.github.kurobako.agave;
 
 import io.github.kurobako.agave.ringbuffer.Allocate;
+import io.github.kurobako.agave.ringbuffer.Consume;
 import io.github.kurobako.agave.ringbuffer.Consumer;
+import io.github.kurobako.agave.ringbuffer.Processor;
 import io.github.kurobako.agave.ringbuffer.RingBuffer;
+import io.github.kurobako.agave.ringbuffer.WaitStrategy;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Supplier;
 
 import static io.github.kurobako.agave.Dictionary.dictionary;
@@ -14,6 +36,8 @@ import static io.github.kurobako.agave.Option.none;
 import static io.github.kurobako.agave.Option.some;
 import static io.github.kurobako.agave.Pair.pair;
 import static io.github.kurobako.agave.Sequence.sequence;
+import static java.lang.Math.max;
+import static java.lang.Math.pow;
 
 public interface Pipe<I, S, O> {
 
@@ -22,114 +46,83 @@ public interface Pipe<I, S, O> {
   @Nonnull Pair<S, O> handle(S state, I input);
 
   static @Nonnull <I, S, O> Ref<I, S, O> ref(Pipe<I, S, O> pipe, int minBufferSize) {
+    return Ref.single(null, pipe, minBufferSize);
+  }
+
+  static @Nonnull <I, S, O> Ref<I, S, O> ref(String name, Pipe<I, S, O> pipe, int minBufferSize) {
     //noinspection ConstantConditions
-    if (pipe == null) throw new NullPointerException("pipe");
-    if (minBufferSize < 1) throw new IllegalArgumentException("minBufferSize");
-    return new Ref.Async<I, S, O>(minBufferSize) {
-      final @Nonnull Consumer<Payload<I, S, O>> consumer = buffer.subscribe();
-      volatile @Nonnull S state = pipe.init();
+    if (name == null) throw new NullPointerException("name");
+    return Ref.single(name, pipe, minBufferSize);
+  }
 
-      @Override
-      public @Nonnull S deref() {
-        return state;
-      }
+  static @Nonnull <I, S, O> Ref<I, S, O> ref(Pipe<I, S, O> pipe, BiFunction<? super S, ? super S, ? extends S> merge, int minBufferSize, int nThreads) {
+    return Ref.shared(null, pipe, merge, minBufferSize, nThreads);
+  }
 
-      @Override
-      public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
-        return dictionary(id(), sequence(() -> consumer.consume((payload, more) -> {
-          Pair<S, O> so = null;
-          try {
-            so = pipe.handle(state, payload.data);
-            state = so.first();
-          } catch (RuntimeException e) {
-            boolean handled = false;
-            Sequence<Function<? super RuntimeException, Supervision>> stack = payload.supervisors;
-            outside: while (!stack.isEmpty()) {
-              switch (stack.first().apply(e)) {
-                case ESCALATE: {
-                  stack = stack.deleteFirst();
-                  break;
-                }
-                case RESTART: {
-                  state = pipe.init();
-                  handled = true;
-                  break outside;
-                }
-                case RESUME: {
-                  handled = true;
-                  break outside;
-                }
-              }
-            }
-            if (!handled) payload.onFailure.run(e);
-          }
-          if (so != null) payload.onSuccess.run(so);
-          return true;
-        })));
-      }
-    };
+  static @Nonnull <I, S, O> Ref<I, S, O> ref(String name, Pipe<I, S, O> pipe, BiFunction<? super S, ? super S, ? extends S> merge, int minBufferSize, int nThreads) {
+    //noinspection ConstantConditions
+    if (name == null) throw new NullPointerException("name");
+    return Ref.shared(name, pipe, merge, minBufferSize, nThreads);
   }
 
-  static @Nonnull <I, S, O> Ref<I, S, O> ref(Pipe<I, S, O> pipe, BiFunction<? super S, ? super S, ? extends S> merge, int minBufferSize, int nThreads) {
+  /**
+   * Each worker folds its inputs into a private partial state; {@code combine} joins the partials on {@code deref}.
+   * {@code combine} must be associative and {@code pipe.init()} must be its identity, since partials are combined
+   * in no particular grouping and idle workers contribute {@code init()}.
+   */
+  static @Nonnull <I, S, O> Ref<I, S, O> striped(Pipe<I, S, O> pipe, BiFunction<? super S, ? super S, ? extends S> combine, int minBufferSize, int nThreads) {
+    return Ref.striped(null, pipe, combine, minBufferSize, nThreads);
+  }
+
+  /**
+   * Named variant of {@link #striped(Pipe, BiFunction, int, int)}; the same requirements on {@code combine} apply.
+   */
+  static @Nonnull <I, S, O> Ref<I, S, O> striped(String name, Pipe<I, S, O> pipe, BiFunction<? super S, ? super S, ? extends S> combine, int minBufferSize, int nThreads) {
     //noinspection ConstantConditions
-    if (pipe == null) throw new NullPointerException("pipe");
+    if (name == null) throw new NullPointerException("name");
+    return Ref.striped(name, pipe, combine, minBufferSize, nThreads);
+  }
+
+  /**
+   * The state handed to {@code onSuccess} holds only the input's key and its updated state, not the whole view.
+   * {@code deref} merges the shards and reuses the merged view until some shard changes.
+   */
+  static @Nonnull <I, K, S, O> Ref<I, Dictionary<K, S>, O> partitioned(Pipe<I, S, O> pipe, Function<? super I, ? extends K> key, int partitions, int minBufferSize) {
+    return Ref.partitioned(null, pipe, key, partitions, minBufferSize);
+  }
+
+  /**
+   * Named variant of {@link #partitioned(Pipe, Function, int, int)}.
+   */
+  static @Nonnull <I, K, S, O> Ref<I, Dictionary<K, S>, O> partitioned(String name, Pipe<I, S, O> pipe, Function<? super I, ? extends K> key, int partitions, int minBufferSize) {
     //noinspection ConstantConditions
-    if (merge == null) throw new NullPointerException("merge");
-    if (minBufferSize < 1) throw new IllegalArgumentException("minBufferSize");
-    if (0 >= nThreads || nThreads > 64) throw new IllegalArgumentException("nThreads");
-    return new Ref.Async<I, S, O>(minBufferSize) {
-      final @Nonnull Consumer<Payload<I, S, O>>[] consumers = buffer.subscribe(nThreads);
-      final @Nonnull AtomicReference<S> state = new AtomicReference<>(pipe.init());
+    if (name == null) throw new NullPointerException("name");
+    return Ref.partitioned(name, pipe, key, partitions, minBufferSize);
+  }
 
-      @Override
-      public @Nonnull S deref() {
-        return state.get();
-      }
+  static @Nonnull <I, S, O> Ref<I, S, O> batched(Batch<I, S, O> pipe, int minBufferSize, int maxBatch) {
+    return Ref.batched(null, pipe, minBufferSize, maxBatch);
+  }
 
-      @Override
-      public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
-        Sequence<Supplier<Consumer.State>> seq = sequence();
-        for (Consumer<Payload<I, S, O>> consumer : consumers) {
-          seq = seq.push(() -> consumer.consume((payload, more) -> {
-            Pair<S, O> so = null;
-            try {
-              S old = state.get();
-              so = pipe.handle(old, payload.data);
-              while (true) {
-                if (state.compareAndSet(old, merge.apply(old, so.first()))) break;
-                else old = state.get();
-              }
-            } catch (RuntimeException e) {
-              boolean handled = false;
-              Sequence<Function<? super RuntimeException, Supervision>> stack = payload.supervisors;
-              outside: while (!stack.isEmpty()) {
-                switch (stack.first().apply(e)) {
-                  case ESCALATE: {
-                    stack = stack.deleteFirst();
-                    break;
-                  }
-                  case RESTART: {
-                    state.set(pipe.init());
-                    handled = true;
-                    break outside;
-                  }
-                  case RESUME: {
-                    handled = true;
-                    break outside;
-                  }
-                }
-              }
-              if (!handled) payload.onFailure.run(e);
-            }
-            if (so != null) payload.onSuccess.run(so);
-            return true;
-          }));
-        }
-        return dictionary(id(), seq);
-      }
-    };
+  static @Nonnull <I, S, O> Ref<I, S, O> batched(String name, Batch<I, S, O> pipe, int minBufferSize, int maxBatch) {
+    //noinspection ConstantConditions
+    if (name == null) throw new NullPointerException("name");
+    return Ref.batched(name, pipe, minBufferSize, maxBatch);
+  }
+
+  static @Nonnull <I, S, O> Chain<I, S, O> chain(Pipe<I, S, O> pipe) {
+    //noinspection ConstantConditions
+    if (pipe == null) throw new NullPointerException("pipe");
+    return new Chain.Staged<>(null, sequence(Ref.Stage.of(pipe)), 0);
   }
 
+  static @Nonnull <I, S, O> Chain<I, S, O> chain(Into<I, S, O> into, Allocate<O> output) {
+    //noinspection ConstantConditions
+    if (into == null) throw new NullPointerException("into");
+    //noinspection ConstantConditions
+    if (output == null) throw new NullPointerException("output");
+    return new Chain.Staged<>(null, sequence(Ref.Stage.of(into, output)), 0);
+  }
 
   static @Nonnull <A, B, C, S, T> Ref<A, T, C> compose(Ref<A, S, B> first, Ref<B, T, C> second) {
     //noinspection ConstantConditions
@@ -138,8 +131,11 @@ public interface Pipe<I, S, O> {
     if (second == null) throw new NullPointerException("second");
     return new Ref<A, T, C>() {
       @Override
-      void push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<T, C>> onSuccess, Procedure<? super RuntimeException> onFailure, A a) {
-        first.push(supervisors, sb -> second.push(supervisors, onSuccess, onFailure, sb.second()), onFailure, a);
+      boolean push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<T, C>> onSuccess, Procedure<? super RuntimeException> onFailure, A a, Ticket ticket, long timeoutNanos) {
+        final long start = System.nanoTime();
+        return first.push(supervisors, sb -> {
+          if (!second.push(supervisors, onSuccess, onFailure, sb.second(), ticket, Ref.remaining(start, timeoutNanos))) onFailure.run(new RejectedExecutionException(second.id()));
+        }, onFailure, a, ticket, timeoutNanos);
       }
 
       @Override
@@ -151,6 +147,28 @@ public interface Pipe<I, S, O> {
       public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
         return first.steps().fold((dict, entry) -> dict.insert(entry.first(), entry.second()), second.steps());
       }
+
+      @Override
+      public @Nonnull Dictionary<String, PipeMetrics> metrics() {
+        return first.metrics().fold((dict, entry) -> dict.insert(entry.first(), entry.second()), second.metrics());
+      }
+
+      @Override
+      void barrier(Barrier barrier, Runnable after) {
+        first.barrier(barrier, () -> second.barrier(barrier, after));
+      }
+
+      @Override
+      void load(Dictionary<String, ?> states) {
+        first.load(states);
+        second.load(states);
+      }
+
+      @Override
+      void prepare(Barrier barrier) {
+        first.prepare(barrier);
+        second.prepare(barrier);
+      }
     };
   }
 
@@ -159,8 +177,8 @@ public interface Pipe<I, S, O> {
     if (ref == null) throw new NullPointerException("ref");
     return new Ref<Pair<A, C>, S, Pair<B, C>>() {
       @Override
-      void push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<S, Pair<B, C>>> onSuccess, Procedure<? super RuntimeException> onFailure, Pair<A, C> ac) {
-        ref.push(supervisors, sb -> onSuccess.run(pair(sb.first(), pair(sb.second(), ac.second()))), onFailure, ac.first());
+      boolean push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<S, Pair<B, C>>> onSuccess, Procedure<? super RuntimeException> onFailure, Pair<A, C> ac, Ticket ticket, long timeoutNanos) {
+        return ref.push(supervisors, sb -> onSuccess.run(pair(sb.first(), pair(sb.second(), ac.second()))), onFailure, ac.first(), ticket, timeoutNanos);
       }
 
       @Override
@@ -172,6 +190,26 @@ public interface Pipe<I, S, O> {
       public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
         return ref.steps();
       }
+
+      @Override
+      public @Nonnull Dictionary<String, PipeMetrics> metrics() {
+        return ref.metrics();
+      }
+
+      @Override
+      void barrier(Barrier barrier, Runnable after) {
+        ref.barrier(barrier, after);
+      }
+
+      @Override
+      void load(Dictionary<String, ?> states) {
+        ref.load(states);
+      }
+
+      @Override
+      void prepare(Barrier barrier) {
+        ref.prepare(barrier);
+      }
     };
   }
 
@@ -180,8 +218,8 @@ public interface Pipe<I, S, O> {
     if (ref == null) throw new NullPointerException("ref");
     return new Ref<Pair<Z, A>, S, Pair<Z, B>>() {
       @Override
-      void push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<S, Pair<Z, B>>> onSuccess, Procedure<? super RuntimeException> onFailure, Pair<Z, A> za) {
-        ref.push(supervisors, sb -> onSuccess.run(pair(sb.first(), pair(za.first(), sb.second()))), onFailure, za.second());
+      boolean push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<S, Pair<Z, B>>> onSuccess, Procedure<? super RuntimeException> onFailure, Pair<Z, A> za, Ticket ticket, long timeoutNanos) {
+        return ref.push(supervisors, sb -> onSuccess.run(pair(sb.first(), pair(za.first(), sb.second()))), onFailure, za.second(), ticket, timeoutNanos);
       }
 
       @Override
@@ -193,6 +231,26 @@ public interface Pipe<I, S, O> {
       public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
         return ref.steps();
       }
+
+      @Override
+      public @Nonnull Dictionary<String, PipeMetrics> metrics() {
+        return ref.metrics();
+      }
+
+      @Override
+      void barrier(Barrier barrier, Runnable after) {
+        ref.barrier(barrier, after);
+      }
+
+      @Override
+      void load(Dictionary<String, ?> states) {
+        ref.load(states);
+      }
+
+      @Override
+      void prepare(Barrier barrier) {
+        ref.prepare(barrier);
+      }
     };
   }
 
@@ -201,9 +259,10 @@ public interface Pipe<I, S, O> {
     if (ref == null) throw new NullPointerException("ref");
     return new Ref<Either<A, C>, S, Either<B, C>>() {
       @Override
-      void push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<S, Either<B, C>>> onSuccess, Procedure<? super RuntimeException> onFailure, Either<A, C> ac) {
-        for (A a : ac.asLeft()) ref.push(supervisors, sb -> onSuccess.run(pair(sb.first(), Either.left(sb.second()))), onFailure, a);
+      boolean push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<S, Either<B, C>>> onSuccess, Procedure<? super RuntimeException> onFailure, Either<A, C> ac, Ticket ticket, long timeoutNanos) {
+        for (A a : ac.asLeft()) return ref.push(supervisors, sb -> onSuccess.run(pair(sb.first(), Either.left(sb.second()))), onFailure, a, ticket, timeoutNanos);
         for (C c : ac.asRight()) onSuccess.run(pair(ref.deref(), Either.right(c)));
+        return true;
       }
 
       @Override
@@ -215,6 +274,26 @@ public interface Pipe<I, S, O> {
       public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
         return ref.steps();
       }
+
+      @Override
+      public @Nonnull Dictionary<String, PipeMetrics> metrics() {
+        return ref.metrics();
+      }
+
+      @Override
+      void barrier(Barrier barrier, Runnable after) {
+        ref.barrier(barrier, after);
+      }
+
+      @Override
+      void load(Dictionary<String, ?> states) {
+        ref.load(states);
+      }
+
+      @Override
+      void prepare(Barrier barrier) {
+        ref.prepare(barrier);
+      }
     };
   }
 
@@ -223,9 +302,10 @@ public interface Pipe<I, S, O> {
     if (ref == null) throw new NullPointerException("ref");
     return new Ref<Either<C, A>, S, Either<C, B>>() {
       @Override
-      void push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<S, Either<C, B>>> onSuccess, Procedure<? super RuntimeException> onFailure, Either<C, A> ca) {
+      boolean push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<S, Either<C, B>>> onSuccess, Procedure<? super RuntimeException> onFailure, Either<C, A> ca, Ticket ticket, long timeoutNanos) {
         for (C c : ca.asLeft()) onSuccess.run(pair(ref.deref(), Either.left(c)));
-        for (A a : ca.asRight()) ref.push(supervisors, sb -> onSuccess.run(pair(sb.first(), Either.right(sb.second()))), onFailure, a);
+        for (A a : ca.asRight()) return ref.push(supervisors, sb -> onSuccess.run(pair(sb.first(), Either.right(sb.second()))), onFailure, a, ticket, timeoutNanos);
+        return true;
       }
 
       @Override
@@ -237,6 +317,26 @@ public interface Pipe<I, S, O> {
       public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
         return ref.steps();
       }
+
+      @Override
+      public @Nonnull Dictionary<String, PipeMetrics> metrics() {
+        return ref.metrics();
+      }
+
+      @Override
+      void barrier(Barrier barrier, Runnable after) {
+        ref.barrier(barrier, after);
+      }
+
+      @Override
+      void load(Dictionary<String, ?> states) {
+        ref.load(states);
+      }
+
+      @Override
+      void prepare(Barrier barrier) {
+        ref.prepare(barrier);
+      }
     };
   }
 
@@ -249,15 +349,16 @@ public interface Pipe<I, S, O> {
       volatile @Nonnull Either<S, T> state = Either.right(second.deref());
 
       @Override
-      void push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<Either<S, T>, Either<B, D>>> onSuccess, Procedure<? super RuntimeException> onFailure, Either<A, C> ac) {
-        for (A a : ac.asLeft()) first.push(supervisors, sb -> {
+      boolean push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<Either<S, T>, Either<B, D>>> onSuccess, Procedure<? super RuntimeException> onFailure, Either<A, C> ac, Ticket ticket, long timeoutNanos) {
+        for (A a : ac.asLeft()) return first.push(supervisors, sb -> {
           state = Either.left(sb.first());
           onSuccess.run(pair(state, Either.left(sb.second())));
-        }, onFailure, a);
-        for (C c : ac.asRight()) second.push(supervisors, td -> {
+        }, onFailure, a, ticket, timeoutNanos);
+        for (C c : ac.asRight()) return second.push(supervisors, td -> {
           state = Either.right(td.first());
           onSuccess.run(pair(state, Either.right(td.second())));
-        }, onFailure, c);
+        }, onFailure, c, ticket, timeoutNanos);
+        return false;
       }
 
       @Override
@@ -269,6 +370,30 @@ public interface Pipe<I, S, O> {
       public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
         return first.steps().fold((dict, entry) -> dict.insert(entry.first(), entry.second()), second.steps());
       }
+
+      @Override
+      public @Nonnull Dictionary<String, PipeMetrics> metrics() {
+        return first.metrics().fold((dict, entry) -> dict.insert(entry.first(), entry.second()), second.metrics());
+      }
+
+      @Override
+      void barrier(Barrier barrier, Runnable after) {
+        final Runnable both = Barrier.all(2, after);
+        first.barrier(barrier, both);
+        second.barrier(barrier, both);
+      }
+
+      @Override
+      void load(Dictionary<String, ?> states) {
+        first.load(states);
+        second.load(states);
+      }
+
+      @Override
+      void prepare(Barrier barrier) {
+        first.prepare(barrier);
+        second.prepare(barrier);
+      }
     };
   }
 
@@ -282,22 +407,29 @@ public interface Pipe<I, S, O> {
 
       @Override
       @SuppressWarnings("unchecked")
-      void push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<Pair<S, T>, Pair<B, D>>> onSuccess, Procedure<? super RuntimeException> onFailure, Pair<A, C> ac) {
+      boolean push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<Pair<S, T>, Pair<B, D>>> onSuccess, Procedure<? super RuntimeException> onFailure, Pair<A, C> ac, Ticket ticket, long timeoutNanos) {
+        final long start = System.nanoTime();
         final AtomicReference<Pair<Option<Pair<S, B>>, Option<Pair<T, D>>>> sbtd = new AtomicReference<>(pair(none(), none()));
-        first.push(supervisors, sb -> {
-          Pair<Option<Pair<S, B>>, Option<Pair<T, D>>> old = sbtd.get();
-          while (!sbtd.compareAndSet(old, pair(some((Pair<S, B>) sb), old.second()))) {
+        final Procedure<RuntimeException> failure = e -> {
+          if (sbtd.getAndSet(null) != null) onFailure.run(e);
+        };
+        if (!first.push(supervisors, sb -> {
+          Pair<Option<Pair<S, B>>, Option<Pair<T, D>>> old;
+          do {
             old = sbtd.get();
-          }
+            if (old == null) return;
+          } while (!sbtd.compareAndSet(old, pair(some((Pair<S, B>) sb), old.second())));
           for (Pair<T, D> td : old.second()) onSuccess.run(pair(pair(sb.first(), td.first()), pair(sb.second(), td.second())));
-        }, onFailure, ac.first());
-        second.push(supervisors, td -> {
-          Pair<Option<Pair<S, B>>, Option<Pair<T, D>>> old = sbtd.get();
-          while (!sbtd.compareAndSet(old, pair(old.first(), some((Pair<T, D>) td)))) {
+        }, failure, ac.first(), ticket, timeoutNanos)) return false;
+        if (!second.push(supervisors, td -> {
+          Pair<Option<Pair<S, B>>, Option<Pair<T, D>>> old;
+          do {
             old = sbtd.get();
-          }
+            if (old == null) return;
+          } while (!sbtd.compareAndSet(old, pair(old.first(), some((Pair<T, D>) td))));
           for (Pair<S, B> sb : old.first()) onSuccess.run(pair(pair(sb.first(), td.first()), pair(sb.second(), td.second())));
-        }, onFailure, ac.second());
+        }, failure, ac.second(), ticket, Ref.remaining(start, timeoutNanos))) failure.run(new RejectedExecutionException(second.id()));
+        return true;
       }
 
       @Override
@@ -309,9 +441,43 @@ public interface Pipe<I, S, O> {
       public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
         return first.steps().fold((dict, entry) -> dict.insert(entry.first(), entry.second()), second.steps());
       }
+
+      @Override
+      public @Nonnull Dictionary<String, PipeMetrics> metrics() {
+        return first.metrics().fold((dict, entry) -> dict.insert(entry.first(), entry.second()), second.metrics());
+      }
+
+      @Override
+      void barrier(Barrier barrier, Runnable after) {
+        final Runnable both = Barrier.all(2, after);
+        first.barrier(barrier, both);
+        second.barrier(barrier, both);
+      }
+
+      @Override
+      void load(Dictionary<String, ?> states) {
+        first.load(states);
+        second.load(states);
+      }
+
+      @Override
+      void prepare(Barrier barrier) {
+        first.prepare(barrier);
+        second.prepare(barrier);
+      }
     };
   }
 
+  @SuppressWarnings("unchecked")
+  static @Nonnull <A, B, C, D, S, T> Ref<Pair<A, C>, Pair<S, T>, Pair<B, D>> zip(Ref<? super A, S, ? extends B> first, Ref<? super C, T, ? extends D> second, int maxInFlight) {
+    //noinspection ConstantConditions
+    if (first == null) throw new NullPointerException("first");
+    //noinspection ConstantConditions
+    if (second == null) throw new NullPointerException("second");
+    if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight");
+    return new Ref.Join<>((Ref<A, S, B>) first, (Ref<C, T, D>) second, Pair::first, Pair::second, maxInFlight);
+  }
+
   static @Nonnull <A, B, C, S, T> Ref<Either<A, C>, Either<S, T>, B> fanIn(Ref<? super A, S, ? extends B> first, Ref<? super C, T, ? extends B> second) {
     //noinspection ConstantConditions
     if (first == null) throw new NullPointerException("first");
@@ -321,15 +487,16 @@ public interface Pipe<I, S, O> {
       volatile @Nonnull Either<S, T> state = Either.right(second.deref());
 
       @Override
-      void push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<Either<S, T>, B>> onSuccess, Procedure<? super RuntimeException> onFailure, Either<A, C> ac) {
-        for (A a : ac.asLeft()) first.push(supervisors, sb -> {
+      boolean push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<Either<S, T>, B>> onSuccess, Procedure<? super RuntimeException> onFailure, Either<A, C> ac, Ticket ticket, long timeoutNanos) {
+        for (A a : ac.asLeft()) return first.push(supervisors, sb -> {
           state = Either.left(sb.first());
           onSuccess.run(pair(state, sb.second()));
-        }, onFailure, a);
-        for (C c : ac.asRight()) second.push(supervisors, tb -> {
+        }, onFailure, a, ticket, timeoutNanos);
+        for (C c : ac.asRight()) return second.push(supervisors, tb -> {
           state = Either.right(tb.first());
           onSuccess.run(pair(state, tb.second()));
-        }, onFailure, c);
+        }, onFailure, c, ticket, timeoutNanos);
+        return false;
       }
 
       @Override
@@ -341,6 +508,30 @@ public interface Pipe<I, S, O> {
       public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
         return first.steps().fold((dict, entry) -> dict.insert(entry.first(), entry.second()), second.steps());
       }
+
+      @Override
+      public @Nonnull Dictionary<String, PipeMetrics> metrics() {
+        return first.metrics().fold((dict, entry) -> dict.insert(entry.first(), entry.second()), second.metrics());
+      }
+
+      @Override
+      void barrier(Barrier barrier, Runnable after) {
+        final Runnable both = Barrier.all(2, after);
+        first.barrier(barrier, both);
+        second.barrier(barrier, both);
+      }
+
+      @Override
+      void load(Dictionary<String, ?> states) {
+        first.load(states);
+        second.load(states);
+      }
+
+      @Override
+      void prepare(Barrier barrier) {
+        first.prepare(barrier);
+        second.prepare(barrier);
+      }
     };
   }
 
@@ -354,28 +545,35 @@ public interface Pipe<I, S, O> {
 
       @Override
       @SuppressWarnings("unchecked")
-      void push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<Pair<S, T>, Pair<B, C>>> onSuccess, Procedure<? super RuntimeException> onFailure, A a) {
+      boolean push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<Pair<S, T>, Pair<B, C>>> onSuccess, Procedure<? super RuntimeException> onFailure, A a, Ticket ticket, long timeoutNanos) {
+        final long start = System.nanoTime();
         final AtomicReference<Pair<Option<Pair<S, B>>, Option<Pair<T, C>>>> sbtc = new AtomicReference<>(pair(none(), none()));
-        first.push(supervisors, sb -> {
-          Pair<Option<Pair<S, B>>, Option<Pair<T, C>>> old = sbtc.get();
-          while (!sbtc.compareAndSet(old, pair(some((Pair<S, B>) sb), old.second()))) {
+        final Procedure<RuntimeException> failure = e -> {
+          if (sbtc.getAndSet(null) != null) onFailure.run(e);
+        };
+        if (!first.push(supervisors, sb -> {
+          Pair<Option<Pair<S, B>>, Option<Pair<T, C>>> old;
+          do {
             old = sbtc.get();
-          }
+            if (old == null) return;
+          } while (!sbtc.compareAndSet(old, pair(some((Pair<S, B>) sb), old.second())));
           for (Pair<T, C> tc : old.second()) {
             state = pair(sb.first(), tc.first());
             onSuccess.run(pair(state, pair(sb.second(), tc.second())));
           }
-        }, onFailure, a);
-        second.push(supervisors, tc -> {
-          Pair<Option<Pair<S, B>>, Option<Pair<T, C>>> old = sbtc.get();
-          while (!sbtc.compareAndSet(old, pair(old.first(), some((Pair<T, C>) tc)))) {
+        }, failure, a, ticket, timeoutNanos)) return false;
+        if (!second.push(supervisors, tc -> {
+          Pair<Option<Pair<S, B>>, Option<Pair<T, C>>> old;
+          do {
             old = sbtc.get();
-          }
+            if (old == null) return;
+          } while (!sbtc.compareAndSet(old, pair(old.first(), some((Pair<T, C>) tc))));
           for (Pair<S, B> sb : old.first()) {
             state = pair(sb.first(), tc.first());
             onSuccess.run(pair(state, pair(sb.second(), tc.second())));
           }
-        }, onFailure, a);
+        }, failure, a, ticket, Ref.remaining(start, timeoutNanos))) failure.run(new RejectedExecutionException(second.id()));
+        return true;
       }
 
       @Override
@@ -387,16 +585,74 @@ public interface Pipe<I, S, O> {
       public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
         return first.steps().fold((dict, entry) -> dict.insert(entry.first(), entry.second()), second.steps());
       }
+
+      @Override
+      public @Nonnull Dictionary<String, PipeMetrics> metrics() {
+        return first.metrics().fold((dict, entry) -> dict.insert(entry.first(), entry.second()), second.metrics());
+      }
+
+      @Override
+      void barrier(Barrier barrier, Runnable after) {
+        final Runnable both = Barrier.all(2, after);
+        first.barrier(barrier, both);
+        second.barrier(barrier, both);
+      }
+
+      @Override
+      void load(Dictionary<String, ?> states) {
+        first.load(states);
+        second.load(states);
+      }
+
+      @Override
+      void prepare(Barrier barrier) {
+        first.prepare(barrier);
+        second.prepare(barrier);
+      }
     };
   }
 
+  @SuppressWarnings("unchecked")
+  static @Nonnull <A, B, C, S, T> Ref<A, Pair<S, T>, Pair<B, C>> fanOut(Ref<? super A, S, ? extends B> first, Ref<? super A, T, ? extends C> second, int maxInFlight) {
+    //noinspection ConstantConditions
+    if (first == null) throw new NullPointerException("first");
+    //noinspection ConstantConditions
+    if (second == null) throw new NullPointerException("second");
+    if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight");
+    return new Ref.Join<>((Ref<A, S, B>) first, (Ref<A, T, C>) second, a -> a, a -> a, maxInFlight);
+  }
+
+  interface Batch<I, S, O> {
+
+    @Nonnull S init();
+
+    @Nonnull Pair<S, Sequence<O>> handle(S state, Sequence<I> inputs);
+
+  }
+
+  interface Into<I, S, O> {
+
+    @Nonnull S init();
+
+    @Nonnull S handle(S state, I input, O output);
+
+  }
+
   abstract class Ref<I, S, O> {
-    private final @Nonnull UUID uuid = UUID.randomUUID();
+    static final int STRIPE = 16;
+
+    private final @Nonnull String id;
 
-    private Ref() {}
+    private Ref() {
+      this(null);
+    }
+
+    private Ref(@Nullable String name) {
+      id = name == null ? UUID.randomUUID().toString() : name;
+    }
 
     public final @Nonnull String id() {
-      return uuid.toString();
+      return id;
     }
 
     public final void push(Procedure<Pair<S, O>> onSuccess, Procedure<? super RuntimeException> onFailure, I data) {
@@ -406,22 +662,102 @@ public interface Pipe<I, S, O> {
       if (onFailure == null) throw new NullPointerException("onFailure");
       //noinspection ConstantConditions
       if (data == null) throw new NullPointerException("data");
-      push(sequence(), onSuccess, onFailure, data);
+      push(sequence(), onSuccess, onFailure, data, Long.MAX_VALUE);
+    }
+
+    public final boolean tryPush(Procedure<Pair<S, O>> onSuccess, Procedure<? super RuntimeException> onFailure, I data) {
+      return push(onSuccess, onFailure, data, 0L, TimeUnit.NANOSECONDS);
+    }
+
+    public final boolean push(Procedure<Pair<S, O>> onSuccess, Procedure<? super RuntimeException> onFailure, I data, long timeout, TimeUnit unit) {
+      //noinspection ConstantConditions
+      if (onSuccess == null) throw new NullPointerException("onSuccess");
+      //noinspection ConstantConditions
+      if (onFailure == null) throw new NullPointerException("onFailure");
+      //noinspection ConstantConditions
+      if (data == null) throw new NullPointerException("data");
+      //noinspection ConstantConditions
+      if (unit == null) throw new NullPointerException("unit");
+      if (timeout < 0) throw new IllegalArgumentException("timeout");
+      return push(sequence(), onSuccess, onFailure, data, unit.toNanos(timeout));
+    }
+
+    private boolean push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<S, O>> onSuccess, Procedure<? super RuntimeException> onFailure, I data, long timeoutNanos) {
+      final Ticket ticket = new Ticket();
+      try {
+        return push(supervisors, onSuccess, onFailure, data, ticket, timeoutNanos);
+      } finally {
+        ticket.leave();
+      }
     }
 
-    abstract void push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<S, O>> onSuccess, Procedure<? super RuntimeException> onFailure, I data);
+    abstract boolean push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<S, O>> onSuccess, Procedure<? super RuntimeException> onFailure, I data, Ticket ticket, long timeoutNanos);
 
     public abstract @Nonnull S deref();
 
     public abstract @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps();
 
+    public abstract @Nonnull Dictionary<String, PipeMetrics> metrics();
+
+    public final @Nonnull CompletionStage<Dictionary<String, Object>> snapshot() {
+      final CompletableFuture<Dictionary<String, Object>> result = new CompletableFuture<>();
+      final Barrier barrier = new Barrier();
+      prepare(barrier);
+      synchronized (Barrier.class) {
+        barrier.align();
+        barrier(barrier, () -> result.complete(barrier.states()));
+      }
+      return result;
+    }
+
+    public final @Nonnull CompletionStage<Path> checkpoint(Path directory, long position, Checkpoint.Encode encoder) {
+      //noinspection ConstantConditions
+      if (directory == null) throw new NullPointerException("directory");
+      //noinspection ConstantConditions
+      if (encoder == null) throw new NullPointerException("encoder");
+      if (position < 0) throw new IllegalArgumentException("position");
+      return snapshot().thenApplyAsync(states -> {
+        try {
+          return Checkpoint.write(directory, position, states, encoder);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    }
+
+    public final void restore(Checkpoint checkpoint) {
+      //noinspection ConstantConditions
+      if (checkpoint == null) throw new NullPointerException("checkpoint");
+      load(checkpoint.states());
+    }
+
+    public final void restore(Dictionary<String, ?> states) {
+      //noinspection ConstantConditions
+      if (states == null) throw new NullPointerException("states");
+      load(states);
+    }
+
+    abstract void barrier(Barrier barrier, Runnable after);
+
+    abstract void load(Dictionary<String, ?> states);
+
+    abstract void prepare(Barrier barrier);
+
+    public final @Nonnull Processor start(WaitStrategy idle) {
+      return Processor.start(steps().asJavaUtilMap(), idle);
+    }
+
+    public final @Nonnull Processor start(WaitStrategy idle, ThreadFactory threadFactory) {
+      return Processor.start(steps().asJavaUtilMap(), idle, threadFactory);
+    }
+
     public final @Nonnull Ref<I, S, O> supervise(Function<? super RuntimeException, Supervision> function) {
       //noinspection ConstantConditions
       if (function == null) throw new NullPointerException("function");
       return new Ref<I, S, O>() {
         @Override
-        void push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<S, O>> onSuccess, Procedure<? super RuntimeException> onFailure, I data) {
-          Ref.this.push(supervisors.push(function), onSuccess, onFailure, data);
+        boolean push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<S, O>> onSuccess, Procedure<? super RuntimeException> onFailure, I data, Ticket ticket, long timeoutNanos) {
+          return Ref.this.push(supervisors.push(function), onSuccess, onFailure, data, ticket, timeoutNanos);
         }
 
         @Override
@@ -433,61 +769,1246 @@ public interface Pipe<I, S, O> {
         public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
           return Ref.this.steps();
         }
-      };
-    }
 
-    public final @Nonnull <T> Ref<I, T, O> map(Function<? super S, ? extends T> function) {
-      //noinspection ConstantConditions
-      if (function == null) throw new NullPointerException("function");
-      return new Ref<I, T, O>() {
         @Override
-        void push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<T, O>> onSuccess, Procedure<? super RuntimeException> onFailure, I data) {
-          Ref.this.push(supervisors, so -> onSuccess.run(pair(function.apply(so.first()), so.second())), onFailure, data);
+        public @Nonnull Dictionary<String, PipeMetrics> metrics() {
+          return Ref.this.metrics();
         }
 
         @Override
-        public @Nonnull T deref() {
-          return function.apply(Ref.this.deref());
+        void barrier(Barrier barrier, Runnable after) {
+          Ref.this.barrier(barrier, after);
+        }
+
+        @Override
+        void load(Dictionary<String, ?> states) {
+          Ref.this.load(states);
+        }
+
+        @Override
+        void prepare(Barrier barrier) {
+          Ref.this.prepare(barrier);
+        }
+      };
+    }
+
+    public final @Nonnull <T> Ref<I, T, O> map(Function<? super S, ? extends T> function) {
+      //noinspection ConstantConditions
+      if (function == null) throw new NullPointerException("function");
+      return new Ref<I, T, O>() {
+        @Override
+        boolean push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<T, O>> onSuccess, Procedure<? super RuntimeException> onFailure, I data, Ticket ticket, long timeoutNanos) {
+          return Ref.this.push(supervisors, so -> onSuccess.run(pair(function.apply(so.first()), so.second())), onFailure, data, ticket, timeoutNanos);
+        }
+
+        @Override
+        public @Nonnull T deref() {
+          return function.apply(Ref.this.deref());
         }
 
         @Override
         public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
           return Ref.this.steps();
         }
+
+        @Override
+        public @Nonnull Dictionary<String, PipeMetrics> metrics() {
+          return Ref.this.metrics();
+        }
+
+        @Override
+        void barrier(Barrier barrier, Runnable after) {
+          Ref.this.barrier(barrier, after);
+        }
+
+        @Override
+        void load(Dictionary<String, ?> states) {
+          Ref.this.load(states);
+        }
+
+        @Override
+        void prepare(Barrier barrier) {
+          Ref.this.prepare(barrier);
+        }
+      };
+    }
+
+    static @Nonnull <I, S, O> Ref<I, S, O> single(@Nullable String name, Pipe<I, S, O> pipe, int minBufferSize) {
+      //noinspection ConstantConditions
+      if (pipe == null) throw new NullPointerException("pipe");
+      if (minBufferSize < 1) throw new IllegalArgumentException("minBufferSize");
+      return new Async<I, S, O>(name, minBufferSize) {
+        final @Nonnull Consumer<Payload<I, S, O>> consumer = buffer.subscribeReleasing();
+        volatile @Nonnull S state = pipe.init();
+
+        @Override
+        public @Nonnull S deref() {
+          return state;
+        }
+
+        @Override
+        void set(S state) {
+          this.state = state;
+        }
+
+        @Override
+        public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
+          return dictionary(id(), sequence(step(consumer, (payload, more) -> {
+            Pair<S, O> so = null;
+            try {
+              final long start = System.nanoTime();
+              so = pipe.handle(state, payload.data);
+              metrics.handled(1, System.nanoTime() - start);
+              state = so.first();
+            } catch (RuntimeException e) {
+              boolean handled = false;
+              Sequence<Function<? super RuntimeException, Supervision>> stack = payload.supervisors;
+              outside: while (!stack.isEmpty()) {
+                switch (stack.first().apply(e)) {
+                  case ESCALATE: {
+                    stack = stack.deleteFirst();
+                    break;
+                  }
+                  case RESTART: {
+                    metrics.failed(Supervision.RESTART);
+                    state = pipe.init();
+                    handled = true;
+                    break outside;
+                  }
+                  case RESUME: {
+                    metrics.failed(Supervision.RESUME);
+                    handled = true;
+                    break outside;
+                  }
+                }
+              }
+              if (handled) {
+                dropped(stack);
+              } else {
+                metrics.failed(Supervision.ESCALATE);
+                payload.onFailure.run(e);
+              }
+            }
+            if (so != null) payload.onSuccess.run(so);
+            return true;
+          }, () -> state)));
+        }
+      };
+    }
+
+    static @Nonnull <I, S, O> Ref<I, S, O> shared(@Nullable String name, Pipe<I, S, O> pipe, BiFunction<? super S, ? super S, ? extends S> merge, int minBufferSize, int nThreads) {
+      //noinspection ConstantConditions
+      if (pipe == null) throw new NullPointerException("pipe");
+      //noinspection ConstantConditions
+      if (merge == null) throw new NullPointerException("merge");
+      if (minBufferSize < 1) throw new IllegalArgumentException("minBufferSize");
+      if (0 >= nThreads) throw new IllegalArgumentException("nThreads");
+      return new Async<I, S, O>(name, minBufferSize, nThreads) {
+        final @Nonnull Consumer<Payload<I, S, O>>[] consumers = buffer.subscribeReleasing(nThreads, 1);
+        final @Nonnull AtomicReference<S> state = new AtomicReference<>(pipe.init());
+
+        @Override
+        public @Nonnull S deref() {
+          return state.get();
+        }
+
+        @Override
+        void set(S state) {
+          this.state.set(state);
+        }
+
+        @Override
+        public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
+          Sequence<Supplier<Consumer.State>> seq = sequence();
+          for (Consumer<Payload<I, S, O>> consumer : consumers) {
+            seq = seq.push(step(consumer, (payload, more) -> {
+              Pair<S, O> so = null;
+              try {
+                S old = state.get();
+                final long start = System.nanoTime();
+                so = pipe.handle(old, payload.data);
+                metrics.handled(1, System.nanoTime() - start);
+                while (true) {
+                  if (state.compareAndSet(old, merge.apply(old, so.first()))) break;
+                  else old = state.get();
+                }
+              } catch (RuntimeException e) {
+                boolean handled = false;
+                Sequence<Function<? super RuntimeException, Supervision>> stack = payload.supervisors;
+                outside: while (!stack.isEmpty()) {
+                  switch (stack.first().apply(e)) {
+                    case ESCALATE: {
+                      stack = stack.deleteFirst();
+                      break;
+                    }
+                    case RESTART: {
+                      metrics.failed(Supervision.RESTART);
+                      state.set(pipe.init());
+                      handled = true;
+                      break outside;
+                    }
+                    case RESUME: {
+                      metrics.failed(Supervision.RESUME);
+                      handled = true;
+                      break outside;
+                    }
+                  }
+                }
+                if (handled) {
+                  dropped(stack);
+                } else {
+                  metrics.failed(Supervision.ESCALATE);
+                  payload.onFailure.run(e);
+                }
+              }
+              if (so != null) payload.onSuccess.run(so);
+              return true;
+            }, state::get));
+          }
+          return dictionary(id(), seq);
+        }
+      };
+    }
+
+    static @Nonnull <I, S, O> Ref<I, S, O> striped(@Nullable String name, Pipe<I, S, O> pipe, BiFunction<? super S, ? super S, ? extends S> combine, int minBufferSize, int nThreads) {
+      //noinspection ConstantConditions
+      if (pipe == null) throw new NullPointerException("pipe");
+      //noinspection ConstantConditions
+      if (combine == null) throw new NullPointerException("combine");
+      if (minBufferSize < 1) throw new IllegalArgumentException("minBufferSize");
+      if (0 >= nThreads) throw new IllegalArgumentException("nThreads");
+      return new Async<I, S, O>(name, minBufferSize, nThreads) {
+        final @Nonnull Consumer<Payload<I, S, O>>[] consumers = buffer.subscribeReleasing(nThreads, 1);
+        final @Nonnull AtomicReferenceArray<Partial<S>> partials = new AtomicReferenceArray<>(nThreads * STRIPE);
+        final @Nonnull AtomicLong generation = new AtomicLong(0L);
+        volatile @Nonnull Partial<S> base = new Partial<>(0L, pipe.init());
+
+        {
+          for (int i = 0; i < nThreads; i++) partials.set(i * STRIPE, base);
+        }
+
+        @Override
+        public @Nonnull S deref() {
+          final long current = generation.get();
+          final Partial<S> loaded = base;
+          S result = loaded.generation == current ? loaded.state : pipe.init();
+          for (int i = 0; i < nThreads; i++) {
+            final Partial<S> partial = partials.get(i * STRIPE);
+            if (partial.generation == current) result = combine.apply(result, partial.state);
+          }
+          return result;
+        }
+
+        @Override
+        synchronized void set(S state) {
+          base = new Partial<>(generation.incrementAndGet(), state);
+        }
+
+        synchronized void restart() {
+          base = new Partial<>(generation.incrementAndGet(), pipe.init());
+        }
+
+        @Override
+        public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
+          Sequence<Supplier<Consumer.State>> seq = sequence();
+          for (int i = 0; i < nThreads; i++) {
+            final Consumer<Payload<I, S, O>> consumer = consumers[i];
+            final int slot = i * STRIPE;
+            seq = seq.inject(step(consumer, (payload, more) -> {
+              Pair<S, O> so = null;
+              try {
+                final long current = generation.get();
+                final Partial<S> partial = partials.get(slot);
+                final long start = System.nanoTime();
+                so = pipe.handle(partial.generation == current ? partial.state : pipe.init(), payload.data);
+                metrics.handled(1, System.nanoTime() - start);
+                partials.lazySet(slot, new Partial<>(current, so.first()));
+              } catch (RuntimeException e) {
+                boolean handled = false;
+                Sequence<Function<? super RuntimeException, Supervision>> stack = payload.supervisors;
+                outside: while (!stack.isEmpty()) {
+                  switch (stack.first().apply(e)) {
+                    case ESCALATE: {
+                      stack = stack.deleteFirst();
+                      break;
+                    }
+                    case RESTART: {
+                      metrics.failed(Supervision.RESTART);
+                      restart();
+                      handled = true;
+                      break outside;
+                    }
+                    case RESUME: {
+                      metrics.failed(Supervision.RESUME);
+                      handled = true;
+                      break outside;
+                    }
+                  }
+                }
+                if (handled) {
+                  dropped(stack);
+                } else {
+                  metrics.failed(Supervision.ESCALATE);
+                  payload.onFailure.run(e);
+                }
+              }
+              if (so != null) payload.onSuccess.run(so);
+              return true;
+            }, this::deref));
+          }
+          return dictionary(id(), seq);
+        }
       };
     }
 
+    static @Nonnull <I, K, S, O> Ref<I, Dictionary<K, S>, O> partitioned(@Nullable String name, Pipe<I, S, O> pipe, Function<? super I, ? extends K> key, int partitions, int minBufferSize) {
+      //noinspection ConstantConditions
+      if (pipe == null) throw new NullPointerException("pipe");
+      //noinspection ConstantConditions
+      if (key == null) throw new NullPointerException("key");
+      if (0 >= partitions) throw new IllegalArgumentException("partitions");
+      if (minBufferSize < 1) throw new IllegalArgumentException("minBufferSize");
+      @SuppressWarnings("unchecked")
+      final Ref<I, Dictionary<K, S>, O>[] shards = (Ref<I, Dictionary<K, S>, O>[]) new Ref<?, ?, ?>[partitions];
+      for (int i = 0; i < partitions; i++) shards[i] = new Async<I, Dictionary<K, S>, O>(name == null ? null : name + "/" + i, minBufferSize) {
+        final @Nonnull Consumer<Payload<I, Dictionary<K, S>, O>> consumer = buffer.subscribeReleasing();
+        volatile @Nonnull Dictionary<K, S> state = dictionary();
+
+        @Override
+        public @Nonnull Dictionary<K, S> deref() {
+          return state;
+        }
+
+        @Override
+        void set(Dictionary<K, S> state) {
+          this.state = state;
+        }
+
+        @Override
+        public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
+          return dictionary(id(), sequence(step(consumer, (payload, more) -> {
+            Pair<Dictionary<K, S>, O> so = null;
+            K k = null;
+            try {
+              final long start = System.nanoTime();
+              k = key.apply(payload.data);
+              final S current = state.lookupNullable(k);
+              final Pair<S, O> result = pipe.handle(current == null ? pipe.init() : current, payload.data);
+              metrics.handled(1, System.nanoTime() - start);
+              state = state.insert(k, result.first());
+              so = pair(dictionary(k, result.first()), result.second());
+            } catch (RuntimeException e) {
+              boolean handled = false;
+              Sequence<Function<? super RuntimeException, Supervision>> stack = payload.supervisors;
+              outside: while (!stack.isEmpty()) {
+                switch (stack.first().apply(e)) {
+                  case ESCALATE: {
+                    stack = stack.deleteFirst();
+                    break;
+                  }
+                  case RESTART: {
+                    metrics.failed(Supervision.RESTART);
+                    if (k != null) state = state.insert(k, pipe.init());
+                    handled = true;
+                    break outside;
+                  }
+                  case RESUME: {
+                    metrics.failed(Supervision.RESUME);
+                    handled = true;
+                    break outside;
+                  }
+                }
+              }
+              if (handled) {
+                dropped(stack);
+              } else {
+                metrics.failed(Supervision.ESCALATE);
+                payload.onFailure.run(e);
+              }
+            }
+            if (so != null) payload.onSuccess.run(so);
+            return true;
+          }, () -> state)));
+        }
+      };
+      return new Ref<I, Dictionary<K, S>, O>() {
+        @Override
+        boolean push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<Dictionary<K, S>, O>> onSuccess, Procedure<? super RuntimeException> onFailure, I data, Ticket ticket, long timeoutNanos) {
+          final int hash = key.apply(data).hashCode();
+          return shards[Math.floorMod(hash ^ (hash >>> 16), partitions)].push(supervisors, onSuccess, onFailure, data, ticket, timeoutNanos);
+        }
+
+        volatile @Nullable Pair<Dictionary<K, S>[], Dictionary<K, S>> view;
+
+        @Override
+        public @Nonnull Dictionary<K, S> deref() {
+          @SuppressWarnings("unchecked")
+          final Dictionary<K, S>[] current = (Dictionary<K, S>[]) new Dictionary<?, ?>[partitions];
+          for (int i = 0; i < partitions; i++) current[i] = shards[i].deref();
+          final Pair<Dictionary<K, S>[], Dictionary<K, S>> cached = view;
+          boolean unchanged = cached != null;
+          for (int i = 0; unchanged && i < partitions; i++) unchanged = cached.first()[i] == current[i];
+          if (unchanged) return cached.second();
+          Dictionary<K, S> result = current[0];
+          for (int i = 1; i < partitions; i++) result = current[i].foldLeft((dict, entry) -> dict.insert(entry.first(), entry.second()), result);
+          view = pair(current, result);
+          return result;
+        }
+
+        @Override
+        public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
+          Dictionary<String, Sequence<Supplier<Consumer.State>>> result = dictionary();
+          for (Ref<I, Dictionary<K, S>, O> shard : shards) result = shard.steps().foldLeft((dict, entry) -> dict.insert(entry.first(), entry.second()), result);
+          return result;
+        }
+
+        @Override
+        public @Nonnull Dictionary<String, PipeMetrics> metrics() {
+          Dictionary<String, PipeMetrics> result = dictionary();
+          for (Ref<I, Dictionary<K, S>, O> shard : shards) result = shard.metrics().foldLeft((dict, entry) -> dict.insert(entry.first(), entry.second()), result);
+          return result;
+        }
+
+        @Override
+        void barrier(Barrier barrier, Runnable after) {
+          final Runnable all = Barrier.all(partitions, after);
+          for (Ref<I, Dictionary<K, S>, O> shard : shards) shard.barrier(barrier, all);
+        }
+
+        @Override
+        void load(Dictionary<String, ?> states) {
+          for (Ref<I, Dictionary<K, S>, O> shard : shards) shard.load(states);
+        }
+
+        @Override
+        void prepare(Barrier barrier) {
+          for (Ref<I, Dictionary<K, S>, O> shard : shards) shard.prepare(barrier);
+        }
+      };
+    }
+
+    static @Nonnull <I, S, O> Ref<I, S, O> batched(@Nullable String name, Batch<I, S, O> pipe, int minBufferSize, int maxBatch) {
+      //noinspection ConstantConditions
+      if (pipe == null) throw new NullPointerException("pipe");
+      if (minBufferSize < 1) throw new IllegalArgumentException("minBufferSize");
+      if (maxBatch < 1) throw new IllegalArgumentException("maxBatch");
+      return new Async<I, S, O>(name, minBufferSize) {
+        final @Nonnull Consumer<Payload<I, S, O>> consumer = buffer.subscribeReleasing();
+        @SuppressWarnings("unchecked")
+        final @Nonnull Payload<I, S, O>[] pending = (Payload<I, S, O>[]) new Payload<?, ?, ?>[maxBatch];
+        int size;
+        volatile @Nonnull S state = pipe.init();
+
+        @Override
+        public @Nonnull S deref() {
+          return state;
+        }
+
+        @Override
+        void set(S state) {
+          this.state = state;
+        }
+
+        @Override
+        public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
+          return dictionary(id(), sequence(step(consumer, (payload, more) -> {
+            pending[size++] = payload;
+            if (!more || size == maxBatch) flush();
+            return true;
+          }, () -> state)));
+        }
+
+        @Override
+        void flush() {
+          if (size == 0) return;
+          try {
+            Sequence<I> inputs = sequence();
+            for (int i = 0; i < size; i++) inputs = inputs.inject(pending[i].data);
+            Pair<S, Sequence<O>> so = null;
+            try {
+              final long start = System.nanoTime();
+              so = pipe.handle(state, inputs);
+              metrics.handled(size, System.nanoTime() - start);
+              if (so.second().length() != size) throw new IllegalStateException("outputs");
+              state = so.first();
+            } catch (RuntimeException e) {
+              so = null;
+              boolean restart = false;
+              for (int i = 0; i < size; i++) {
+                final Payload<I, S, O> payload = pending[i];
+                boolean handled = false;
+                Sequence<Function<? super RuntimeException, Supervision>> stack = payload.supervisors;
+                outside: while (!stack.isEmpty()) {
+                  switch (stack.first().apply(e)) {
+                    case ESCALATE: {
+                      stack = stack.deleteFirst();
+                      break;
+                    }
+                    case RESTART: {
+                      metrics.failed(Supervision.RESTART);
+                      restart = true;
+                      handled = true;
+                      break outside;
+                    }
+                    case RESUME: {
+                      metrics.failed(Supervision.RESUME);
+                      handled = true;
+                      break outside;
+                    }
+                  }
+                }
+                if (handled) {
+                  dropped(stack);
+                } else {
+                  metrics.failed(Supervision.ESCALATE);
+                  payload.onFailure.run(e);
+                }
+              }
+              if (restart) state = pipe.init();
+            }
+            if (so != null) {
+              int i = 0;
+              for (O o : so.second()) pending[i++].onSuccess.run(pair(so.first(), o));
+            }
+          } finally {
+            Arrays.fill(pending, 0, size, null);
+            size = 0;
+          }
+        }
+      };
+    }
+
+    static @Nonnull <I, S, O> Ref<I, S, O> staged(@Nullable String name, Sequence<Stage<?, ?, ?>> stages, int minBufferSize) {
+      if (stages.isEmpty()) throw new IllegalArgumentException("stages");
+      if (minBufferSize < 1) throw new IllegalArgumentException("minBufferSize");
+      @SuppressWarnings("unchecked")
+      final Stage<Object, Object, Object>[] steps = (Stage<Object, Object, Object>[]) stages.asJavaUtilList().toArray(new Stage<?, ?, ?>[0]);
+      return new Async<I, S, O>(name, minBufferSize, () -> {
+        final Object[] outputs = new Object[steps.length];
+        for (int i = 0; i < steps.length; i++) outputs[i] = steps[i].allocate();
+        return new Payload<>(outputs);
+      }) {
+        final @Nonnull Consumer<Payload<I, S, O>> consumer = buffer.subscribeReleasing();
+        final @Nonnull AtomicReferenceArray<Object> states = new AtomicReferenceArray<>(steps.length);
+
+        {
+          for (int i = 0; i < steps.length; i++) states.set(i, steps[i].init());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public @Nonnull S deref() {
+          return (S) states.get(steps.length - 1);
+        }
+
+        @Override
+        void set(S state) {
+          states.set(steps.length - 1, state);
+        }
+
+        @Override
+        void load(Dictionary<String, ?> states) {
+          final Object state = states.lookupNullable(id());
+          if (!(state instanceof Sequence) || ((Sequence<?>) state).length() != steps.length) throw new IllegalArgumentException("No state for " + id());
+          int i = 0;
+          for (Object s : (Sequence<?>) state) this.states.set(i++, s);
+        }
+
+        @Override
+        public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
+          return dictionary(id(), sequence(step(consumer, (payload, more) -> {
+            Object output = payload.data;
+            int i = 0;
+            try {
+              final long start = System.nanoTime();
+              for (; i < steps.length; i++) output = steps[i].handle(states, i, output, payload.outputs[i]);
+              metrics.handled(1, System.nanoTime() - start);
+            } catch (RuntimeException e) {
+              output = null;
+              boolean handled = false;
+              Sequence<Function<? super RuntimeException, Supervision>> stack = payload.supervisors;
+              outside: while (!stack.isEmpty()) {
+                switch (stack.first().apply(e)) {
+                  case ESCALATE: {
+                    stack = stack.deleteFirst();
+                    break;
+                  }
+                  case RESTART: {
+                    metrics.failed(Supervision.RESTART);
+                    states.lazySet(i, steps[i].init());
+                    handled = true;
+                    break outside;
+                  }
+                  case RESUME: {
+                    metrics.failed(Supervision.RESUME);
+                    handled = true;
+                    break outside;
+                  }
+                }
+              }
+              if (handled) {
+                dropped(stack);
+              } else {
+                metrics.failed(Supervision.ESCALATE);
+                payload.onFailure.run(e);
+              }
+            }
+            if (output != null) complete(payload, output);
+            return true;
+          }, () -> {
+            Sequence<Object> snapshot = sequence();
+            for (int i = 0; i < steps.length; i++) snapshot = snapshot.inject(states.get(i));
+            return snapshot;
+          })));
+        }
+
+        @SuppressWarnings("unchecked")
+        void complete(Payload<I, S, O> payload, Object output) {
+          payload.onSuccess.run(pair(deref(), (O) output));
+        }
+      };
+    }
+
+    static abstract class Stage<I, S, O> {
+
+      abstract @Nonnull S init();
+
+      abstract @Nullable O allocate();
+
+      abstract @Nonnull O handle(AtomicReferenceArray<Object> states, int index, I input, @Nullable O output);
+
+      static @Nonnull <I, S, O> Stage<I, S, O> of(Pipe<I, S, O> pipe) {
+        return new Stage<I, S, O>() {
+          @Override
+          @Nonnull S init() {
+            return pipe.init();
+          }
+
+          @Override
+          @Nullable O allocate() {
+            return null;
+          }
+
+          @Override
+          @SuppressWarnings("unchecked")
+          @Nonnull O handle(AtomicReferenceArray<Object> states, int index, I input, @Nullable O output) {
+            final Pair<S, O> so = pipe.handle((S) states.get(index), input);
+            states.lazySet(index, so.first());
+            return so.second();
+          }
+        };
+      }
+
+      static @Nonnull <I, S, O> Stage<I, S, O> of(Into<I, S, O> into, Allocate<O> output) {
+        return new Stage<I, S, O>() {
+          @Override
+          @Nonnull S init() {
+            return into.init();
+          }
+
+          @Override
+          @Nullable O allocate() {
+            return output.allocate();
+          }
+
+          @Override
+          @SuppressWarnings("unchecked")
+          @Nonnull O handle(AtomicReferenceArray<Object> states, int index, I input, @Nullable O output) {
+            states.lazySet(index, into.handle((S) states.get(index), input, output));
+            //noinspection ConstantConditions
+            return output;
+          }
+        };
+      }
+    }
+
     private static abstract class Async<I, S, O> extends Ref<I, S, O> {
       final @Nonnull RingBuffer<Payload<I, S, O>> buffer;
+      final @Nonnull PipeMetrics metrics;
+      private final boolean named;
+      private final int parties;
+      private final @Nonnull Allocate<Payload<I, S, O>> allocator;
+      private final @Nonnull ArrayDeque<Long> pending = new ArrayDeque<>();
+      private final @Nonnull AtomicInteger arrived = new AtomicInteger(0);
+      private volatile long armed = Long.MAX_VALUE;
+      private volatile long passed;
+
+      Async(@Nullable String name, int minBufferSize) {
+        this(name, minBufferSize, 1, Payload::new);
+      }
+
+      Async(@Nullable String name, int minBufferSize, int parties) {
+        this(name, minBufferSize, parties, Payload::new);
+      }
+
+      Async(@Nullable String name, int minBufferSize, Allocate<Payload<I, S, O>> allocator) {
+        this(name, minBufferSize, 1, allocator);
+      }
+
+      private Async(@Nullable String name, int minBufferSize, int parties, Allocate<Payload<I, S, O>> allocator) {
+        super(name);
+        this.named = name != null;
+        this.parties = parties;
+        this.allocator = allocator;
+        this.buffer = RingBuffer.multiProducer(minBufferSize, allocator, Payload::reset);
+        this.metrics = new PipeMetrics(buffer.metrics());
+      }
+
+      @Override
+      public final @Nonnull Dictionary<String, PipeMetrics> metrics() {
+        return dictionary(id(), metrics);
+      }
+
+      @Override
+      final void barrier(Barrier barrier, Runnable after) {
+        final long token = buffer.claim(parties);
+        try {
+          for (long i = token - parties + 1; i <= token; i++) {
+            final Payload<I, S, O> payload = buffer.read(i);
+            payload.barrier = barrier;
+            payload.after = after;
+          }
+        } finally {
+          buffer.publish(token - parties + 1, token);
+        }
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      void load(Dictionary<String, ?> states) {
+        final Object state = states.lookupNullable(id());
+        if (state == null) throw new IllegalArgumentException("No state for " + id());
+        set((S) state);
+      }
+
+      @Override
+      void prepare(Barrier barrier) {
+        if (!named) throw new IllegalStateException("Unnamed ref " + id());
+        barrier.enlist(this);
+      }
+
+      abstract void set(S state);
+
+      void flush() {}
+
+      synchronized void arm(long epoch) {
+        pending.addLast(epoch);
+        armed = pending.getFirst();
+      }
+
+      private synchronized void release() {
+        pending.pollFirst();
+        passed++;
+        armed = pending.isEmpty() ? Long.MAX_VALUE : pending.getFirst();
+      }
+
+      final @Nonnull Supplier<Consumer.State> step(Consumer<Payload<I, S, O>> consumer, Consume<Payload<I, S, O>> handler, Supplier<?> state) {
+        return new Step(consumer, handler, state);
+      }
+
+      private final class Step implements Supplier<Consumer.State>, Consume<Payload<I, S, O>> {
+        private final @Nonnull Consumer<Payload<I, S, O>> consumer;
+        private final @Nonnull Consume<Payload<I, S, O>> handler;
+        private final @Nonnull Supplier<?> state;
+        private final @Nonnull ArrayDeque<Payload<I, S, O>> held = new ArrayDeque<>();
+        private long waiting = -1L;
+
+        Step(Consumer<Payload<I, S, O>> consumer, Consume<Payload<I, S, O>> handler, Supplier<?> state) {
+          this.consumer = consumer;
+          this.handler = handler;
+          this.state = state;
+        }
+
+        @Override
+        public @Nonnull Consumer.State get() {
+          if (waiting >= 0) {
+            if (passed < waiting) return Consumer.State.IDLE;
+            waiting = -1L;
+            replay();
+          }
+          return consumer.consume(this);
+        }
 
-      Async(int minBufferSize) {
-        super();
-        this.buffer = RingBuffer.multiProducer(minBufferSize, (Allocate<Payload<I, S, O>>) Payload::new);
+        @Override
+        public boolean consume(Payload<I, S, O> payload, boolean more) {
+          if (payload.barrier != null) {
+            flush();
+            final long group = passed;
+            if (arrived.incrementAndGet() < parties) {
+              waiting = group + 1;
+              return false;
+            }
+            arrived.set(0);
+            payload.barrier.record(id(), state.get());
+            payload.after.run();
+            release();
+            replay();
+            return true;
+          }
+          if (payload.epoch >= armed) {
+            final Payload<I, S, O> copy = allocator.allocate();
+            copy.copy(payload);
+            held.addLast(copy);
+            if (!more) flush();
+            return true;
+          }
+          return handler.consume(payload, more);
+        }
+
+        private void replay() {
+          final long epoch = armed;
+          final int size = held.size();
+          for (int i = 0; i < size; i++) {
+            final Payload<I, S, O> next = held.pollFirst();
+            if (next.epoch < epoch) handler.consume(next, true);
+            else held.addLast(next);
+          }
+          flush();
+        }
       }
 
       @Override
-      void push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<S,O>> onSuccess, Procedure<? super RuntimeException> onFailure, I data) {
-        final long token = buffer.claim();
+      boolean push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<S,O>> onSuccess, Procedure<? super RuntimeException> onFailure, I data, Ticket ticket, long timeoutNanos) {
+        final long token = timeoutNanos == Long.MAX_VALUE ? buffer.claim() : buffer.claim(1, timeoutNanos, TimeUnit.NANOSECONDS);
+        if (token == -1L) return false;
         try {
           final Payload<I, S, O> payload = buffer.read(token);
           payload.supervisors = supervisors;
           payload.onSuccess = onSuccess;
           payload.onFailure = onFailure;
           payload.data = data;
+          payload.epoch = ticket.land();
         } finally {
           buffer.publish(token);
         }
+        return true;
+      }
+
+    }
+
+    private static final class Join<X, A, C, S, T, B, D> extends Ref<X, Pair<S, T>, Pair<B, D>> {
+      @SuppressWarnings("unchecked")
+      private static final @Nonnull AtomicLongFieldUpdater<Join<?, ?, ?, ?, ?, ?, ?>> NEXT_UPDATER = (AtomicLongFieldUpdater<Join<?, ?, ?, ?, ?, ?, ?>>) (AtomicLongFieldUpdater<?>) AtomicLongFieldUpdater.newUpdater(Join.class, "next");
+
+      private final @Nonnull Ref<A, S, B> first;
+      private final @Nonnull Ref<C, T, D> second;
+      private final @Nonnull Function<? super X, ? extends A> left;
+      private final @Nonnull Function<? super X, ? extends C> right;
+      private final @Nonnull Slot<S, T, B, D>[] slots;
+      private final int mask;
+      private volatile long next;
+      volatile @Nonnull Pair<S, T> state;
+
+      @SuppressWarnings("unchecked")
+      Join(Ref<A, S, B> first, Ref<C, T, D> second, Function<? super X, ? extends A> left, Function<? super X, ? extends C> right, int maxInFlight) {
+        this.first = first;
+        this.second = second;
+        this.left = left;
+        this.right = right;
+        final int size = (int) pow(2, 32 - Integer.numberOfLeadingZeros(maxInFlight - 1));
+        slots = (Slot<S, T, B, D>[]) new Slot<?, ?, ?, ?>[size];
+        for (int i = 0; i < size; i++) slots[i] = new Slot<>(this, i);
+        mask = size - 1;
+        state = pair(first.deref(), second.deref());
+      }
+
+      @Override
+      boolean push(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<Pair<S, T>, Pair<B, D>>> onSuccess, Procedure<? super RuntimeException> onFailure, X data, Ticket ticket, long timeoutNanos) {
+        final long start = System.nanoTime();
+        Slot<S, T, B, D> slot;
+        while (true) {
+          final long sequence = next;
+          slot = slots[(int) sequence & mask];
+          if (slot.turn == sequence) {
+            if (NEXT_UPDATER.compareAndSet(this, sequence, sequence + 1)) break;
+          } else if (ticket.stale()) {
+            slot = new Slot<>(this, -1L);
+            break;
+          } else if (System.nanoTime() - start >= timeoutNanos) {
+            return false;
+          } else {
+            LockSupport.parkNanos(1L);
+          }
+        }
+        slot.claim(supervisors, onSuccess, onFailure);
+        if (!first.push(slot.supervisors, slot.first, slot.failure, left.apply(data), ticket, remaining(start, timeoutNanos))) {
+          slot.release();
+          return false;
+        }
+        if (!second.push(slot.supervisors, slot.second, slot.failure, right.apply(data), ticket, remaining(start, timeoutNanos))) slot.failure.run(new RejectedExecutionException(second.id()));
+        return true;
+      }
+
+      @Override
+      public @Nonnull Pair<S, T> deref() {
+        return state;
+      }
+
+      @Override
+      public @Nonnull Dictionary<String, Sequence<Supplier<Consumer.State>>> steps() {
+        return first.steps().fold((dict, entry) -> dict.insert(entry.first(), entry.second()), second.steps());
+      }
+
+      @Override
+      public @Nonnull Dictionary<String, PipeMetrics> metrics() {
+        return first.metrics().fold((dict, entry) -> dict.insert(entry.first(), entry.second()), second.metrics());
+      }
+
+      @Override
+      void barrier(Barrier barrier, Runnable after) {
+        final Runnable both = Barrier.all(2, after);
+        first.barrier(barrier, both);
+        second.barrier(barrier, both);
+      }
+
+      @Override
+      void load(Dictionary<String, ?> states) {
+        first.load(states);
+        second.load(states);
+      }
+
+      @Override
+      void prepare(Barrier barrier) {
+        first.prepare(barrier);
+        second.prepare(barrier);
+      }
+
+      private static final class Slot<S, T, B, D> {
+        @SuppressWarnings("unchecked")
+        private static final @Nonnull AtomicIntegerFieldUpdater<Slot<?, ?, ?, ?>> PENDING_UPDATER = (AtomicIntegerFieldUpdater<Slot<?, ?, ?, ?>>) (AtomicIntegerFieldUpdater<?>) AtomicIntegerFieldUpdater.newUpdater(Slot.class, "pending");
+        @SuppressWarnings("unchecked")
+        private static final @Nonnull AtomicReferenceFieldUpdater<Slot<?, ?, ?, ?>, RuntimeException> ERROR_UPDATER = (AtomicReferenceFieldUpdater<Slot<?, ?, ?, ?>, RuntimeException>) (AtomicReferenceFieldUpdater<?, RuntimeException>) AtomicReferenceFieldUpdater.newUpdater(Slot.class, RuntimeException.class, "error");
+
+        private final @Nonnull Join<?, ?, ?, S, T, B, D> join;
+        final @Nonnull Procedure<Pair<S, B>> first = sb -> {
+          this.sb = sb;
+          arrive();
+        };
+        final @Nonnull Procedure<Pair<T, D>> second = td -> {
+          this.td = td;
+          arrive();
+        };
+        final @Nonnull Procedure<RuntimeException> failure = e -> {
+          ERROR_UPDATER.compareAndSet(this, null, e);
+          arrive();
+        };
+        private final @Nonnull Sentinel sentinel = new Sentinel();
+        volatile long turn;
+        private volatile int pending;
+        Sequence<Function<? super RuntimeException, Supervision>> supervisors;
+        private Sequence<Function<? super RuntimeException, Supervision>> unwrapped;
+        private Procedure<Pair<Pair<S, T>, Pair<B, D>>> onSuccess;
+        private Procedure<? super RuntimeException> onFailure;
+        private Pair<S, B> sb;
+        private Pair<T, D> td;
+        private volatile RuntimeException error;
+        private boolean dropped;
+
+        Slot(Join<?, ?, ?, S, T, B, D> join, long turn) {
+          this.join = join;
+          this.turn = turn;
+        }
+
+        void claim(Sequence<Function<? super RuntimeException, Supervision>> supervisors, Procedure<Pair<Pair<S, T>, Pair<B, D>>> onSuccess, Procedure<? super RuntimeException> onFailure) {
+          if (supervisors != unwrapped) {
+            unwrapped = supervisors;
+            this.supervisors = supervisors.filter(function -> !(function instanceof Drop)).inject(sentinel);
+          }
+          this.onSuccess = onSuccess;
+          this.onFailure = onFailure;
+          pending = 2;
+        }
+
+        void release() {
+          onSuccess = null;
+          onFailure = null;
+          sb = null;
+          td = null;
+          error = null;
+          dropped = false;
+          turn += join.slots.length;
+        }
+
+        private void arrive() {
+          if (PENDING_UPDATER.decrementAndGet(this) != 0) return;
+          final Procedure<Pair<Pair<S, T>, Pair<B, D>>> onSuccess = this.onSuccess;
+          final Procedure<? super RuntimeException> onFailure = this.onFailure;
+          final Sequence<Function<? super RuntimeException, Supervision>> unwrapped = this.unwrapped;
+          final Pair<S, B> sb = this.sb;
+          final Pair<T, D> td = this.td;
+          final RuntimeException error = this.error;
+          final boolean dropped = this.dropped;
+          release();
+          if (error != null) {
+            onFailure.run(error);
+          } else if (dropped) {
+            dropped(unwrapped);
+          } else {
+            final Pair<S, T> state = pair(sb.first(), td.first());
+            join.state = state;
+            onSuccess.run(pair(state, pair(sb.second(), td.second())));
+          }
+        }
+
+        private final class Sentinel implements Function<RuntimeException, Supervision>, Drop {
+          @Override
+          public @Nonnull Supervision apply(RuntimeException e) {
+            return Supervision.ESCALATE;
+          }
+
+          @Override
+          public void dropped() {
+            dropped = true;
+            arrive();
+          }
+        }
       }
+    }
+
+    static long remaining(long start, long timeoutNanos) {
+      return timeoutNanos == Long.MAX_VALUE ? Long.MAX_VALUE : max(0L, timeoutNanos - (System.nanoTime() - start));
+    }
+
+    static void dropped(Sequence<Function<? super RuntimeException, Supervision>> stack) {
+      for (Function<? super RuntimeException, Supervision> function : stack) {
+        if (function instanceof Drop) ((Drop) function).dropped();
+      }
+    }
+
+    interface Drop {
+
+      void dropped();
 
     }
 
     static final class Payload<I, S, O> {
+      final @Nonnull Object[] outputs;
       I data;
       Procedure<Pair<S, O>> onSuccess;
       Procedure<? super RuntimeException> onFailure;
       Sequence<Function<? super RuntimeException, Supervision>> supervisors;
+      Barrier barrier;
+      Runnable after;
+      long epoch;
+
+      Payload() {
+        this(new Object[0]);
+      }
+
+      Payload(Object[] outputs) {
+        this.outputs = outputs;
+      }
+
+      void reset() {
+        data = null;
+        onSuccess = null;
+        onFailure = null;
+        supervisors = null;
+        barrier = null;
+        after = null;
+        epoch = 0L;
+      }
+
+      void copy(Payload<I, S, O> from) {
+        data = from.data;
+        onSuccess = from.onSuccess;
+        onFailure = from.onFailure;
+        supervisors = from.supervisors;
+        epoch = from.epoch;
+      }
+    }
+
+    static final class Partial<S> {
+      final long generation;
+      final @Nonnull S state;
+
+      Partial(long generation, S state) {
+        this.generation = generation;
+        this.state = state;
+      }
+    }
+
+    static final class Ticket {
+      private static final @Nonnull AtomicLong EPOCH = new AtomicLong(0L);
+      private static final @Nonnull LongAdder[] INFLIGHT = {new LongAdder(), new LongAdder()};
+
+      private long epoch = -1L;
+
+      long land() {
+        while (epoch < 0) {
+          final long current = EPOCH.get();
+          INFLIGHT[(int) current & 1].increment();
+          if (EPOCH.get() == current) epoch = current;
+          else INFLIGHT[(int) current & 1].decrement();
+        }
+        return epoch;
+      }
+
+      boolean stale() {
+        return epoch >= 0 && epoch != EPOCH.get();
+      }
+
+      void leave() {
+        if (epoch >= 0) INFLIGHT[(int) epoch & 1].decrement();
+      }
+    }
+
+    static final class Barrier {
+      private final @Nonnull AtomicReference<Dictionary<String, Object>> states = new AtomicReference<>(dictionary());
+      private @Nonnull Sequence<Async<?, ?, ?>> leaves = sequence();
+
+      void enlist(Async<?, ?, ?> leaf) {
+        leaves = leaves.inject(leaf);
+      }
+
+      void align() {
+        final long epoch = Ticket.EPOCH.get() + 1;
+        for (Async<?, ?, ?> leaf : leaves) leaf.arm(epoch);
+        Ticket.EPOCH.set(epoch);
+        final LongAdder inflight = Ticket.INFLIGHT[(int) (epoch - 1) & 1];
+        while (inflight.sum() != 0) Thread.yield();
+      }
+
+      void record(String id, Object state) {
+        Dictionary<String, Object> old = states.get();
+        while (!states.compareAndSet(old, old.insert(id, state))) {
+          old = states.get();
+        }
+      }
+
+      @Nonnull Dictionary<String, Object> states() {
+        return states.get();
+      }
+
+      static @Nonnull Runnable all(int parties, Runnable after) {
+        final AtomicInteger remaining = new AtomicInteger(parties);
+        return () -> {
+          if (remaining.decrementAndGet() == 0) after.run();
+        };
+      }
+    }
+
+  }
+
+  abstract class Chain<I, S, O> {
+    final int stage;
+
+    private Chain(int stage) {
+      this.stage = stage;
+    }
+
+    public abstract @Nonnull <T, P> Chain<I, T, P> fuse(Pipe<O, T, P> next);
+
+    public abstract @Nonnull <T, P> Chain<I, T, P> fuse(Into<O, T, P> next, Allocate<P> output);
+
+    public final @Nonnull <T, P> Chain<I, T, P> then(Pipe<O, T, P> next) {
+      //noinspection ConstantConditions
+      if (next == null) throw new NullPointerException("next");
+      return new Staged<>(hop(), sequence(Ref.Stage.of(next)), stage + 1);
+    }
+
+    public final @Nonnull <T, P> Chain<I, T, P> then(Into<O, T, P> next, Allocate<P> output) {
+      //noinspection ConstantConditions
+      if (next == null) throw new NullPointerException("next");
+      //noinspection ConstantConditions
+      if (output == null) throw new NullPointerException("output");
+      return new Staged<>(hop(), sequence(Ref.Stage.of(next, output)), stage + 1);
+    }
+
+    public final @Nonnull <T, P> Chain<I, T, P> then(Pipe<O, T, P> next, BiFunction<? super T, ? super T, ? extends T> merge, int nThreads) {
+      //noinspection ConstantConditions
+      if (next == null) throw new NullPointerException("next");
+      //noinspection ConstantConditions
+      if (merge == null) throw new NullPointerException("merge");
+      if (0 >= nThreads) throw new IllegalArgumentException("nThreads");
+      final Hop<I, S, O> prefix = hop();
+      final int stage = this.stage + 1;
+      return new Closed<>((name, minBufferSize) -> compose(prefix.build(name, minBufferSize), Ref.shared(name(name, stage), next, merge, minBufferSize, nThreads)), stage);
+    }
+
+    public final @Nonnull Ref<I, S, O> build(int minBufferSize) {
+      if (minBufferSize < 1) throw new IllegalArgumentException("minBufferSize");
+      return hop().build(null, minBufferSize);
     }
 
+    public final @Nonnull Ref<I, S, O> build(String name, int minBufferSize) {
+      //noinspection ConstantConditions
+      if (name == null) throw new NullPointerException("name");
+      if (minBufferSize < 1) throw new IllegalArgumentException("minBufferSize");
+      return hop().build(name, minBufferSize);
+    }
+
+    abstract @Nonnull Hop<I, S, O> hop();
+
+    static @Nullable String name(@Nullable String chain, int stage) {
+      return chain == null ? null : chain + "/" + stage;
+    }
+
+    interface Hop<I, S, O> {
+
+      @Nonnull Ref<I, S, O> build(@Nullable String name, int minBufferSize);
+
+    }
+
+    private static final class Staged<I, M, S, O> extends Chain<I, S, O> {
+      private final @Nullable Hop<I, ?, M> prefix;
+      private final @Nonnull Sequence<Ref.Stage<?, ?, ?>> stages;
+
+      Staged(@Nullable Hop<I, ?, M> prefix, Sequence<Ref.Stage<?, ?, ?>> stages, int stage) {
+        super(stage);
+        this.prefix = prefix;
+        this.stages = stages;
+      }
+
+      @Override
+      public @Nonnull <T, P> Chain<I, T, P> fuse(Pipe<O, T, P> next) {
+        //noinspection ConstantConditions
+        if (next == null) throw new NullPointerException("next");
+        return new Staged<>(prefix, stages.inject(Ref.Stage.of(next)), stage);
+      }
+
+      @Override
+      public @Nonnull <T, P> Chain<I, T, P> fuse(Into<O, T, P> next, Allocate<P> output) {
+        //noinspection ConstantConditions
+        if (next == null) throw new NullPointerException("next");
+        //noinspection ConstantConditions
+        if (output == null) throw new NullPointerException("output");
+        return new Staged<>(prefix, stages.inject(Ref.Stage.of(next, output)), stage);
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      @Nonnull Hop<I, S, O> hop() {
+        return (name, minBufferSize) -> {
+          final Ref<M, S, O> ref = Ref.staged(name(name, stage), stages, minBufferSize);
+          return prefix == null ? (Ref<I, S, O>) ref : compose(prefix.build(name, minBufferSize), ref);
+        };
+      }
+    }
+
+    private static final class Closed<I, S, O> extends Chain<I, S, O> {
+      private final @Nonnull Hop<I, S, O> built;
+
+      Closed(Hop<I, S, O> built, int stage) {
+        super(stage);
+        this.built = built;
+      }
+
+      @Override
+      public @Nonnull <T, P> Chain<I, T, P> fuse(Pipe<O, T, P> next) {
+        throw new IllegalStateException("Parallel stage " + stage + " cannot be fused");
+      }
+
+      @Override
+      public @Nonnull <T, P> Chain<I, T, P> fuse(Into<O, T, P> next, Allocate<P> output) {
+        throw new IllegalStateException("Parallel stage " + stage + " cannot be fused");
+      }
+
+      @Override
+      @Nonnull Hop<I, S, O> hop() {
+        return built;
+      }
+    }
   }
 
   enum Supervision {
@@ -0,0 +1,188 @@
+package io.github.kurobako.agave;
+
+import io.github.kurobako.agave.ringbuffer.BufferMetrics;
+
+import javax.annotation.Nonnull;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.Long.numberOfLeadingZeros;
+
+public final class PipeMetrics {
+  static final int LATENCY_BUCKETS = 64;
+
+  private final @Nonnull BufferMetrics buffer;
+  private final @Nonnull LongAdder handled = new LongAdder();
+  private final @Nonnull LongAdder resumed = new LongAdder();
+  private final @Nonnull LongAdder restarted = new LongAdder();
+  private final @Nonnull LongAdder escalated = new LongAdder();
+  private final @Nonnull LongAdder[] latencies = new LongAdder[LATENCY_BUCKETS];
+
+  PipeMetrics(BufferMetrics buffer) {
+    this.buffer = buffer;
+    for (int i = 0; i < LATENCY_BUCKETS; i++) latencies[i] = new LongAdder();
+  }
+
+  public long handled() {
+    return handled.sum();
+  }
+
+  public long failures(Pipe.Supervision outcome) {
+    switch (outcome) {
+      case RESUME: return resumed.sum();
+      case RESTART: return restarted.sum();
+      case ESCALATE: return escalated.sum();
+      default: throw new IllegalArgumentException();
+    }
+  }
+
+  public int capacity() {
+    return buffer.capacity();
+  }
+
+  public long depth() {
+    return buffer.occupancy();
+  }
+
+  public @Nonnull long[] latencies() {
+    final long[] result = new long[LATENCY_BUCKETS];
+    int length = 0;
+    for (int i = 0; i < result.length; i++) {
+      result[i] = latencies[i].sum();
+      if (result[i] != 0L) length = i + 1;
+    }
+    return Arrays.copyOf(result, length);
+  }
+
+  public long latencyPercentile(double percentile) {
+    if (percentile < 0.0 || percentile > 100.0) throw new IllegalArgumentException("percentile");
+    final long[] buckets = latencies();
+    long total = 0L;
+    for (long count : buckets) total += count;
+    if (total == 0L) return 0L;
+    final long rank = (long) Math.ceil(total * percentile / 100.0);
+    long seen = 0L;
+    for (int i = 0; i < buckets.length; i++) {
+      seen += buckets[i];
+      if (seen >= rank && seen > 0L) return i == 63 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+    }
+    return Long.MAX_VALUE;
+  }
+
+  public @Nonnull BufferMetrics buffer() {
+    return buffer;
+  }
+
+  public @Nonnull ObjectName register(String name) throws JMException {
+    final ObjectName result = new ObjectName("io.github.kurobako.agave:type=Pipe,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(new Bean(this), MXBean.class, true), result);
+    return result;
+  }
+
+  void handled(int count, long nanos) {
+    handled.add(count);
+    latencies[63 - numberOfLeadingZeros(Math.max(1L, nanos / count))].add(count);
+  }
+
+  void failed(Pipe.Supervision outcome) {
+    switch (outcome) {
+      case RESUME: {
+        resumed.increment();
+        break;
+      }
+      case RESTART: {
+        restarted.increment();
+        break;
+      }
+      case ESCALATE: {
+        escalated.increment();
+        break;
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "PipeMetrics{handled=" + handled() + ", resumed=" + failures(Pipe.Supervision.RESUME) + ", restarted=" + failures(Pipe.Supervision.RESTART) + ", escalated=" + failures(Pipe.Supervision.ESCALATE) + ", depth=" + depth() + ", latencies=" + Arrays.toString(latencies()) + "}";
+  }
+
+  public interface MXBean {
+
+    long getHandled();
+
+    long getResumed();
+
+    long getRestarted();
+
+    long getEscalated();
+
+    int getCapacity();
+
+    long getDepth();
+
+    long[] getLatencies();
+
+    long getLatency50();
+
+    long getLatency99();
+
+  }
+
+  private static final class Bean implements MXBean {
+    private final @Nonnull PipeMetrics metrics;
+
+    Bean(PipeMetrics metrics) {
+      this.metrics = metrics;
+    }
+
+    @Override
+    public long getHandled() {
+      return metrics.handled();
+    }
+
+    @Override
+    public long getResumed() {
+      return metrics.failures(Pipe.Supervision.RESUME);
+    }
+
+    @Override
+    public long getRestarted() {
+      return metrics.failures(Pipe.Supervision.RESTART);
+    }
+
+    @Override
+    public long getEscalated() {
+      return metrics.failures(Pipe.Supervision.ESCALATE);
+    }
+
+    @Override
+    public int getCapacity() {
+      return metrics.capacity();
+    }
+
+    @Override
+    public long getDepth() {
+      return metrics.depth();
+    }
+
+    @Override
+    public long[] getLatencies() {
+      return metrics.latencies();
+    }
+
+    @Override
+    public long getLatency50() {
+      return metrics.latencyPercentile(50.0);
+    }
+
+    @Override
+    public long getLatency99() {
+      return metrics.latencyPercentile(99.0);
+    }
+  }
+
+}
@@ -6,7 +6,7 @@ import javax.annotation.Nonnull;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 @Contended
-final class AtomicCursor extends Cursor.Write {
+final class AtomicCursor extends Cursor.Atomic {
   private static final @Nonnull AtomicLongFieldUpdater<AtomicCursor> VALUE_UPDATER = AtomicLongFieldUpdater.newUpdater(AtomicCursor.class, "value");
 
   @SuppressWarnings("FieldCanBeLocal")
@@ -22,10 +22,12 @@ final class AtomicCursor extends Cursor.Write {
     VALUE_UPDATER.lazySet(this, value);
   }
 
+  @Override
   void writeVolatile(final long value) {
     VALUE_UPDATER.set(this, value);
   }
 
+  @Override
   boolean compareAndSwap(final long expected, final long updated) {
     return VALUE_UPDATER.compareAndSet(this, expected, updated);
   }
@@ -0,0 +1,138 @@
+package io.github.kurobako.agave.ringbuffer;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.lang.Integer.numberOfLeadingZeros;
+import static java.lang.Long.numberOfTrailingZeros;
+import static java.lang.Math.min;
+
+abstract class Availability {
+  private Availability() {}
+
+  abstract void publish(long from, long to);
+
+  abstract long lastPublished(long from, long to);
+
+  static @Nonnull Availability perSlot(int size) {
+    return new PerSlot(size);
+  }
+
+  static @Nonnull Availability bitset(int size) {
+    return new Bitset(size);
+  }
+
+  static @Nonnull Availability mapped(MappedMemory memory, long offset, int size, boolean reset) {
+    return new Mapped(memory, offset, size, reset);
+  }
+
+  private static final class PerSlot extends Availability {
+    private final @Nonnull AtomicIntegerArray availability;
+    private final int mask;
+    private final int shift;
+
+    PerSlot(int size) {
+      assert 0 < size && Integer.bitCount(size) == 1;
+      availability = new AtomicIntegerArray(size);
+      for (int i = 0; i < size; i++) availability.lazySet(i, -1);
+      mask = size - 1;
+      shift = 31 - numberOfLeadingZeros(size);
+    }
+
+    @Override
+    void publish(long from, long to) {
+      for (long i = from; i <= to; i++) availability.lazySet(((int) i) & mask, (int) (i >>> shift));
+    }
+
+    @Override
+    long lastPublished(long from, long to) {
+      for (long i = from; i <= to; i++) {
+        if (availability.get(((int) i) & mask) != (int) (i >>> shift)) return i - 1;
+      }
+      return to;
+    }
+  }
+
+  private static final class Mapped extends Availability {
+    private final @Nonnull MappedMemory memory;
+    private final long offset;
+    private final int mask;
+    private final int shift;
+
+    Mapped(MappedMemory memory, long offset, int size, boolean reset) {
+      assert 0 < size && Integer.bitCount(size) == 1;
+      assert (offset & 3) == 0 && offset + 4L * size <= memory.length;
+      this.memory = memory;
+      this.offset = offset;
+      if (reset) for (int i = 0; i < size; i++) memory.putIntOrdered(offset + 4L * i, -1);
+      mask = size - 1;
+      shift = 31 - numberOfLeadingZeros(size);
+    }
+
+    @Override
+    void publish(long from, long to) {
+      for (long i = from; i <= to; i++) memory.putIntOrdered(offset + 4L * (((int) i) & mask), (int) (i >>> shift));
+    }
+
+    @Override
+    long lastPublished(long from, long to) {
+      for (long i = from; i <= to; i++) {
+        if (memory.getIntVolatile(offset + 4L * (((int) i) & mask)) != (int) (i >>> shift)) return i - 1;
+      }
+      return to;
+    }
+  }
+
+  private static final class Bitset extends Availability {
+    private final @Nonnull AtomicLongArray words;
+    private final int mask;
+    private final int shift;
+
+    Bitset(int size) {
+      assert 0 < size && Integer.bitCount(size) == 1;
+      words = new AtomicLongArray(((size - 1) >>> 6) + 1);
+      mask = size - 1;
+      shift = 31 - numberOfLeadingZeros(size);
+    }
+
+    @Override
+    void publish(long from, long to) {
+      long sequence = from;
+      while (sequence <= to) {
+        final int index = ((int) sequence) & mask;
+        final int span = span(index, to - sequence + 1);
+        final long bits = bits(index, span);
+        words.getAndAdd(index >>> 6, isOddLap(sequence) ? -bits : bits);
+        sequence += span;
+      }
+    }
+
+    @Override
+    long lastPublished(long from, long to) {
+      long sequence = from;
+      while (sequence <= to) {
+        final int index = ((int) sequence) & mask;
+        final int span = span(index, to - sequence + 1);
+        final long word = words.get(index >>> 6);
+        final long missing = (isOddLap(sequence) ? word : ~word) & bits(index, span);
+        if (missing != 0L) return sequence + numberOfTrailingZeros(missing) - (index & 63) - 1;
+        sequence += span;
+      }
+      return to;
+    }
+
+    private int span(int index, long remaining) {
+      return (int) min(remaining, min(64 - (index & 63), mask + 1 - index));
+    }
+
+    private static long bits(int index, int span) {
+      return (span == 64 ? -1L : (1L << span) - 1) << (index & 63);
+    }
+
+    private boolean isOddLap(long sequence) {
+      return ((sequence >>> shift) & 1L) != 0L;
+    }
+  }
+
+}
@@ -0,0 +1,88 @@
+package io.github.kurobako.agave.ringbuffer;
+
+import javax.annotation.Nonnull;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+public final class BufferMetrics {
+  private final @Nonnull Sequencer sequencer;
+
+  BufferMetrics(Sequencer sequencer) {
+    this.sequencer = sequencer;
+  }
+
+  public int capacity() {
+    return sequencer.capacity();
+  }
+
+  public long cursor() {
+    return sequencer.cursor.readVolatile();
+  }
+
+  public long occupancy() {
+    final long gate = sequencer.gate.readVolatile();
+    final long cursor = sequencer.cursor.readVolatile();
+    return max(0L, cursor - min(gate, cursor));
+  }
+
+  public long failedClaims() {
+    return sequencer.failedClaims.sum();
+  }
+
+  public @Nonnull ObjectName register(String name) throws JMException {
+    final ObjectName result = new ObjectName("io.github.kurobako.agave:type=RingBuffer,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(new Bean(this), MXBean.class, true), result);
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "BufferMetrics{capacity=" + capacity() + ", cursor=" + cursor() + ", occupancy=" + occupancy() + ", failedClaims=" + failedClaims() + "}";
+  }
+
+  public interface MXBean {
+
+    int getCapacity();
+
+    long getCursor();
+
+    long getOccupancy();
+
+    long getFailedClaims();
+
+  }
+
+  private static final class Bean implements MXBean {
+    private final @Nonnull BufferMetrics metrics;
+
+    Bean(BufferMetrics metrics) {
+      this.metrics = metrics;
+    }
+
+    @Override
+    public int getCapacity() {
+      return metrics.capacity();
+    }
+
+    @Override
+    public long getCursor() {
+      return metrics.cursor();
+    }
+
+    @Override
+    public long getOccupancy() {
+      return metrics.occupancy();
+    }
+
+    @Override
+    public long getFailedClaims() {
+      return metrics.failedClaims();
+    }
+  }
+
+}
@@ -0,0 +1,90 @@
+package io.github.kurobako.agave.ringbuffer;
+
+import javax.annotation.Nonnull;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+public final class ConsumerMetrics {
+  private final @Nonnull Subscription<?> subscription;
+
+  ConsumerMetrics(Subscription<?> subscription) {
+    this.subscription = subscription;
+  }
+
+  public long cursor() {
+    return subscription.cursor().readVolatile();
+  }
+
+  public long lag() {
+    return subscription.lag();
+  }
+
+  public long gating() {
+    return subscription.gatingCount();
+  }
+
+  public @Nonnull long[] batchSizes() {
+    final long[] result = new long[Subscription.BATCH_BUCKETS];
+    int length = 0;
+    for (int i = 0; i < result.length; i++) {
+      result[i] = subscription.batchCount(i);
+      if (result[i] != 0L) length = i + 1;
+    }
+    return Arrays.copyOf(result, length);
+  }
+
+  public @Nonnull ObjectName register(String name) throws JMException {
+    final ObjectName result = new ObjectName("io.github.kurobako.agave:type=Consumer,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(new Bean(this), MXBean.class, true), result);
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "ConsumerMetrics{cursor=" + cursor() + ", lag=" + lag() + ", gating=" + gating() + ", batchSizes=" + Arrays.toString(batchSizes()) + "}";
+  }
+
+  public interface MXBean {
+
+    long getCursor();
+
+    long getLag();
+
+    long getGating();
+
+    long[] getBatchSizes();
+
+  }
+
+  private static final class Bean implements MXBean {
+    private final @Nonnull ConsumerMetrics metrics;
+
+    Bean(ConsumerMetrics metrics) {
+      this.metrics = metrics;
+    }
+
+    @Override
+    public long getCursor() {
+      return metrics.cursor();
+    }
+
+    @Override
+    public long getLag() {
+      return metrics.lag();
+    }
+
+    @Override
+    public long getGating() {
+      return metrics.gating();
+    }
+
+    @Override
+    public long[] getBatchSizes() {
+      return metrics.batchSizes();
+    }
+  }
+
+}
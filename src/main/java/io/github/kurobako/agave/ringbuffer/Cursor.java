@@ -1,5 +1,7 @@
 package io.github.kurobako.agave.ringbuffer;
 
+import javax.annotation.Nonnull;
+
 public abstract class Cursor {
 
   public abstract long readVolatile();
@@ -9,4 +11,24 @@ public abstract class Cursor {
     abstract void writeOrdered(long value);
 
   }
+
+  static abstract class Atomic extends Write {
+
+    abstract void writeVolatile(long value);
+
+    abstract boolean compareAndSwap(long expected, long updated);
+
+  }
+
+  static abstract class Membership extends Cursor {
+
+    abstract @Nonnull Cursor.Write join(Cursor resetTo);
+
+    abstract @Nonnull Cursor.Atomic reserve();
+
+    abstract void invite(Cursor resetTo, Cursor.Write... newMembers);
+
+    abstract boolean expel(Cursor member);
+
+  }
 }
@@ -0,0 +1,8 @@
+package io.github.kurobako.agave.ringbuffer;
+
+@FunctionalInterface
+public interface DoubleConsume {
+
+  boolean consume(double data, boolean more);
+
+}
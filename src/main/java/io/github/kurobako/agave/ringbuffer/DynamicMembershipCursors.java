@@ -3,68 +3,120 @@ package io.github.kurobako.agave.ringbuffer;
 import sun.misc.Contended;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import static java.lang.Math.min;
-import static java.util.Arrays.copyOf;
 
 @Contended
-final class DynamicMembershipCursors extends Cursor {
-  private static final AtomicReferenceFieldUpdater<DynamicMembershipCursors, Cursor[]> MEMBERS_UPDATER = AtomicReferenceFieldUpdater.newUpdater(DynamicMembershipCursors.class, Cursor[].class, "members");
+final class DynamicMembershipCursors extends Cursor.Membership {
+  private static final @Nonnull AtomicLongFieldUpdater<DynamicMembershipCursors> DIRTY_UPDATER = AtomicLongFieldUpdater.newUpdater(DynamicMembershipCursors.class, "dirty");
+  private static final int FANOUT = 8;
 
-  private volatile @Nonnull Cursor[] members = new Cursor[0];
+  private final @Nonnull Group head = new Group();
+  private volatile long dirty = Long.MIN_VALUE;
 
   @Override
   public long readVolatile() {
-    long result = Long.MAX_VALUE;
-    for (Cursor cursor : members) {
-      result = min(result, cursor.readVolatile());
+    while (true) {
+      long result = Long.MAX_VALUE;
+      for (Group group = head; group != null; group = group.next) {
+        result = min(result, group.floor);
+      }
+      boolean raised = false;
+      for (Group group = head; group != null; group = group.next) {
+        final long floor = group.floor;
+        if (floor > result) continue;
+        final long scanned = group.scan();
+        if (scanned != floor) {
+          group.raise(floor, scanned);
+          raised = true;
+        }
+      }
+      if (!raised) return result;
     }
+  }
+
+  @Override
+  @Nonnull Cursor.Write join(Cursor resetTo) {
+    final AtomicCursor result = new AtomicCursor();
+    result.writeOrdered(resetTo.readVolatile());
+    insert(result);
+    result.writeOrdered(resetTo.readVolatile());
     return result;
   }
 
+  @Override
+  @Nonnull Cursor.Atomic reserve() {
+    return new AtomicCursor();
+  }
+
+  @Override
   void invite(Cursor resetTo, Cursor.Write... newMembers) {
-    Cursor[] current;
-    Cursor[] updated;
-    long resetValue;
-    int index;
-    do {
-      current = members;
-      updated = copyOf(current, current.length + newMembers.length);
-      index = current.length;
-      resetValue = resetTo.readVolatile();
-      for (Cursor.Write c : newMembers) {
-        c.writeOrdered(resetValue);
-        updated[index++] = c;
-      }
-    } while (!MEMBERS_UPDATER.compareAndSet(this, current, updated));
+    long resetValue = resetTo.readVolatile();
+    for (Cursor.Write c : newMembers) {
+      c.writeOrdered(resetValue);
+      insert(c);
+    }
     resetValue = resetTo.readVolatile();
     for (Cursor.Write c : newMembers) {
       c.writeOrdered(resetValue);
     }
   }
 
+  @Override
   boolean expel(Cursor member) {
-    Cursor[] current;
-    Cursor[] updated;
-    int deleteAt = -1;
-    do {
-      current = members;
-      for (Cursor c : current) {
-        if (c == member) {
-          deleteAt++;
-        }
+    for (Group group = head; group != null; group = group.next) {
+      for (int i = 0; i < FANOUT; i++) {
+        if (group.members.get(i) == member && group.members.compareAndSet(i, member, null)) return true;
       }
-      if (deleteAt == -1) return false;
-      updated = new Cursor[current.length - deleteAt + 1];
-      int updatedIndex = 0;
-      for (final Cursor c : current) {
-        if (c != member) {
-          updated[updatedIndex++] = c;
+    }
+    return false;
+  }
+
+  private void insert(Cursor member) {
+    Group group = head;
+    while (true) {
+      for (int i = 0; i < FANOUT; i++) {
+        if (group.members.get(i) == null && group.members.compareAndSet(i, null, member)) {
+          group.floor = DIRTY_UPDATER.getAndIncrement(this);
+          return;
         }
       }
-    } while (!MEMBERS_UPDATER.compareAndSet(this, current, updated));
-    return true;
+      group = group.next();
+    }
+  }
+
+  @Contended
+  private static final class Group {
+    private static final @Nonnull AtomicLongFieldUpdater<Group> FLOOR_UPDATER = AtomicLongFieldUpdater.newUpdater(Group.class, "floor");
+    private static final @Nonnull AtomicReferenceFieldUpdater<Group, Group> NEXT_UPDATER = AtomicReferenceFieldUpdater.newUpdater(Group.class, Group.class, "next");
+
+    final @Nonnull AtomicReferenceArray<Cursor> members = new AtomicReferenceArray<>(FANOUT);
+    volatile long floor = Long.MAX_VALUE;
+    volatile @Nullable Group next;
+
+    @Nonnull Group next() {
+      final Group current = next;
+      if (current != null) return current;
+      NEXT_UPDATER.compareAndSet(this, null, new Group());
+      return next;
+    }
+
+    long scan() {
+      long result = Long.MAX_VALUE;
+      for (int i = 0; i < FANOUT; i++) {
+        final Cursor member = members.get(i);
+        if (member != null) result = min(result, member.readVolatile());
+      }
+      return result;
+    }
+
+    void raise(long expected, long updated) {
+      FLOOR_UPDATER.compareAndSet(this, expected, updated);
+    }
   }
 
 }
@@ -0,0 +1,8 @@
+package io.github.kurobako.agave.ringbuffer;
+
+@FunctionalInterface
+public interface IntConsume {
+
+  boolean consume(int data, boolean more);
+
+}
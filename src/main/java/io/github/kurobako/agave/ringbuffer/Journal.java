@@ -0,0 +1,294 @@
+package io.github.kurobako.agave.ringbuffer;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public final class Journal<E> implements Consume<E>, Closeable {
+  private static final int MAGIC = 0x41474a4c;
+  private static final int VERSION = 1;
+  private static final long MAGIC_OFFSET = 0;
+  private static final long VERSION_OFFSET = 4;
+  private static final long FIRST_OFFSET = 8;
+  private static final long RECORDS_OFFSET = 16;
+  private static final String SUFFIX = ".journal";
+
+  private final @Nonnull Path directory;
+  private final int segmentSize;
+  private final @Nonnull Encode<E> encoder;
+  private final @Nonnull Sync sync;
+  private @Nonnull MappedMemory segment;
+  private long position;
+  private long appended;
+  private boolean dirty;
+  private boolean closed;
+  private @Nonnull ByteBuffer scratch = ByteBuffer.allocate(256);
+
+  private Journal(Path directory, int segmentSize, Encode<E> encoder, Sync sync) throws IOException {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.encoder = encoder;
+    this.sync = sync.copy();
+    final List<Path> segments = segments(directory);
+    if (segments.isEmpty()) {
+      segment = segment(0L);
+      position = RECORDS_OFFSET;
+    } else {
+      segment = MappedMemory.open(segments.get(segments.size() - 1));
+      try {
+        check(segment);
+      } catch (IOException e) {
+        segment.unmap();
+        throw e;
+      }
+      appended = segment.getLong(FIRST_OFFSET);
+      position = RECORDS_OFFSET;
+      int length;
+      while (position + 4 <= segment.length && (length = segment.getInt(position)) != 0) {
+        position += 4 + length;
+        appended++;
+      }
+    }
+  }
+
+  @Override
+  public boolean consume(E data, boolean more) {
+    try {
+      append(data);
+      if (!more) flush(false);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return true;
+  }
+
+  public long appended() {
+    return appended;
+  }
+
+  public void flush() {
+    flush(true);
+  }
+
+  @Override
+  public void close() {
+    if (closed) return;
+    flush(true);
+    closed = true;
+    segment.unmap();
+  }
+
+  private void append(E data) throws IOException {
+    if (closed) throw new IllegalStateException("closed");
+    scratch.clear();
+    while (true) {
+      try {
+        encoder.encode(data, scratch);
+        break;
+      } catch (BufferOverflowException e) {
+        scratch = ByteBuffer.allocate(scratch.capacity() << 1);
+      }
+    }
+    final int length = scratch.position();
+    if (length == 0) throw new IllegalArgumentException("data");
+    if (RECORDS_OFFSET + 4 + length > segmentSize) throw new IllegalArgumentException("segmentSize");
+    if (position + 4 + length > segmentSize) {
+      if (dirty && sync != Sync.NONE) segment.force();
+      final MappedMemory full = segment;
+      segment = segment(appended);
+      full.unmap();
+      position = RECORDS_OFFSET;
+    }
+    segment.putBytes(position + 4, scratch.array(), 0, length);
+    segment.putIntOrdered(position, length);
+    position += 4 + length;
+    appended++;
+    dirty = true;
+  }
+
+  private void flush(boolean force) {
+    if (closed) throw new IllegalStateException("closed");
+    if (!dirty) return;
+    if (force || sync.due()) {
+      segment.force();
+      dirty = false;
+    }
+  }
+
+  private @Nonnull MappedMemory segment(long first) throws IOException {
+    final MappedMemory result = MappedMemory.create(directory.resolve(String.format("%020d", first) + SUFFIX), segmentSize);
+    result.putInt(MAGIC_OFFSET, MAGIC);
+    result.putInt(VERSION_OFFSET, VERSION);
+    result.putLong(FIRST_OFFSET, first);
+    return result;
+  }
+
+  public static @Nonnull <E> Journal<E> open(Path directory, int segmentSize, Encode<E> encoder, Sync sync) throws IOException {
+    //noinspection ConstantConditions
+    if (directory == null) throw new NullPointerException("directory");
+    //noinspection ConstantConditions
+    if (encoder == null) throw new NullPointerException("encoder");
+    //noinspection ConstantConditions
+    if (sync == null) throw new NullPointerException("sync");
+    if (segmentSize <= RECORDS_OFFSET + 4) throw new IllegalArgumentException("segmentSize");
+    Files.createDirectories(directory);
+    return new Journal<>(directory, segmentSize, encoder, sync);
+  }
+
+  public static <E> long replay(Path directory, Decode<E> decoder, Consume<E> into) throws IOException {
+    return replay(directory, decoder, into, 0L);
+  }
+
+  public static <E> long replay(Path directory, Decode<E> decoder, Consume<E> into, long from) throws IOException {
+    //noinspection ConstantConditions
+    if (decoder == null) throw new NullPointerException("decoder");
+    //noinspection ConstantConditions
+    if (into == null) throw new NullPointerException("into");
+    if (from < 0) throw new IllegalArgumentException("from");
+    long result = 0L;
+    final List<Path> segments = segments(directory);
+    for (int i = 0; i < segments.size(); i++) {
+      if (i + 1 < segments.size() && first(segments.get(i + 1)) <= from) continue;
+      final MappedMemory segment = MappedMemory.open(segments.get(i));
+      try {
+        check(segment);
+        long index = segment.getLong(FIRST_OFFSET);
+        long position = RECORDS_OFFSET;
+        int length = position + 4 <= segment.length ? segment.getInt(position) : 0;
+        while (length != 0) {
+          final long record = position + 4;
+          final int recordLength = length;
+          position += 4 + length;
+          length = position + 4 <= segment.length ? segment.getInt(position) : 0;
+          if (index++ < from) continue;
+          final byte[] bytes = new byte[recordLength];
+          segment.getBytes(record, bytes, 0, recordLength);
+          result++;
+          if (!into.consume(decoder.decode(ByteBuffer.wrap(bytes)), length != 0 || i + 1 < segments.size())) return result;
+        }
+      } finally {
+        segment.unmap();
+      }
+    }
+    return result;
+  }
+
+  public static <E> long replay(Path directory, Decode<E> decoder, RingBuffer<E> into) throws IOException {
+    return replay(directory, decoder, into, 0L);
+  }
+
+  public static <E> long replay(Path directory, Decode<E> decoder, RingBuffer<E> into, long from) throws IOException {
+    //noinspection ConstantConditions
+    if (into == null) throw new NullPointerException("into");
+    return replay(directory, decoder, (data, more) -> {
+      final long token = into.claim();
+      into.write(token, data);
+      into.publish(token);
+      return true;
+    }, from);
+  }
+
+  private static @Nonnull List<Path> segments(Path directory) throws IOException {
+    final List<Path> result = new ArrayList<>();
+    if (!Files.isDirectory(directory)) return result;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (Path path : stream) result.add(path);
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  private static long first(Path segment) {
+    final String name = segment.getFileName().toString();
+    return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+  }
+
+  private static void check(MappedMemory segment) throws IOException {
+    if (segment.length < RECORDS_OFFSET || segment.getInt(MAGIC_OFFSET) != MAGIC || segment.getInt(VERSION_OFFSET) != VERSION) {
+      throw new IOException("Not a journal segment");
+    }
+  }
+
+  @FunctionalInterface
+  public interface Encode<E> {
+
+    void encode(E data, ByteBuffer target);
+
+  }
+
+  @FunctionalInterface
+  public interface Decode<E> {
+
+    @Nonnull E decode(ByteBuffer source);
+
+  }
+
+  public static abstract class Sync {
+    static final @Nonnull Sync NONE = new Sync() {
+      @Override
+      boolean due() {
+        return false;
+      }
+    };
+    static final @Nonnull Sync BATCH = new Sync() {
+      @Override
+      boolean due() {
+        return true;
+      }
+    };
+
+    private Sync() {}
+
+    abstract boolean due();
+
+    @Nonnull Sync copy() {
+      return this;
+    }
+
+    public static @Nonnull Sync none() {
+      return NONE;
+    }
+
+    public static @Nonnull Sync perBatch() {
+      return BATCH;
+    }
+
+    public static @Nonnull Sync periodic(long interval, TimeUnit unit) {
+      if (interval < 1) throw new IllegalArgumentException();
+      return new Periodic(unit.toNanos(interval));
+    }
+
+    private static final class Periodic extends Sync {
+      private final long intervalNanos;
+      private long last = System.nanoTime();
+
+      Periodic(long intervalNanos) {
+        this.intervalNanos = intervalNanos;
+      }
+
+      @Override
+      @Nonnull Sync copy() {
+        return new Periodic(intervalNanos);
+      }
+
+      @Override
+      boolean due() {
+        final long now = System.nanoTime();
+        if (now - last < intervalNanos) return false;
+        last = now;
+        return true;
+      }
+    }
+  }
+
+}
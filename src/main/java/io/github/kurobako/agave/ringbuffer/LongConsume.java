@@ -0,0 +1,8 @@
+package io.github.kurobako.agave.ringbuffer;
+
+@FunctionalInterface
+public interface LongConsume {
+
+  boolean consume(long data, boolean more);
+
+}
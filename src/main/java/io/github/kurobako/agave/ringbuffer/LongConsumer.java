@@ -0,0 +1,30 @@
+package io.github.kurobako.agave.ringbuffer;
+
+import io.github.kurobako.agave.ringbuffer.Consumer.State;
+
+import javax.annotation.Nonnull;
+
+public final class LongConsumer {
+  private final @Nonnull Subscription<LongConsume> subscription;
+
+  LongConsumer(Subscription<LongConsume> subscription) {
+    this.subscription = subscription;
+  }
+
+  public @Nonnull State consume(LongConsume with) {
+    return subscription.consume(with);
+  }
+
+  public @Nonnull State await(LongConsume with, WaitStrategy strategy) {
+    return subscription.await(with, strategy);
+  }
+
+  public @Nonnull Cursor cursor() {
+    return subscription.cursor();
+  }
+
+  public @Nonnull ConsumerMetrics metrics() {
+    return subscription.metrics();
+  }
+
+}
@@ -0,0 +1,168 @@
+package io.github.kurobako.agave.ringbuffer;
+
+import sun.misc.Contended;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Math.pow;
+
+@Contended
+public final class LongRingBuffer {
+  private final @Nonnull Sequencer sequencer;
+  private final @Nonnull long[] entries;
+  private final int mask;
+  private final @Nonnull Subscription.Delivery<LongConsume> delivery = (with, token, more) -> with.consume(read(token), more);
+
+  private LongRingBuffer(Sequencer sequencer) {
+    this.sequencer = sequencer;
+    entries = new long[sequencer.size];
+    mask = entries.length - 1;
+  }
+
+  public long tryClaim() {
+    return sequencer.tryClaim(1);
+  }
+
+  public long tryClaim(int amount) {
+    return sequencer.tryClaim(amount);
+  }
+
+  public long claim() {
+    return sequencer.claim(1, Sequencer.PARK);
+  }
+
+  public long claim(int amount) {
+    return sequencer.claim(amount, Sequencer.PARK);
+  }
+
+  public long claim(WaitStrategy strategy) {
+    return sequencer.claim(1, strategy);
+  }
+
+  public long claim(int amount, WaitStrategy strategy) {
+    return sequencer.claim(amount, strategy);
+  }
+
+  public long claim(long timeout, TimeUnit unit) {
+    return sequencer.claim(1, unit.toNanos(timeout), Sequencer.PARK);
+  }
+
+  public long claim(int amount, long timeout, TimeUnit unit) {
+    return sequencer.claim(amount, unit.toNanos(timeout), Sequencer.PARK);
+  }
+
+  public long claim(int amount, long timeout, TimeUnit unit, WaitStrategy strategy) {
+    return sequencer.claim(amount, unit.toNanos(timeout), strategy);
+  }
+
+  public @Nonnull CompletionStage<Long> claimAsync(ScheduledExecutorService executor) {
+    return Sequencer.claimAsync(sequencer::tryClaim, 1, executor);
+  }
+
+  public @Nonnull CompletionStage<Long> claimAsync(int amount, ScheduledExecutorService executor) {
+    return Sequencer.claimAsync(sequencer::tryClaim, amount, executor);
+  }
+
+  public long read(long token) {
+    if (token < 0) throw new IllegalArgumentException();
+    return entries[(int)(token & mask)];
+  }
+
+  public void write(long token, long data) {
+    if (token < 0) throw new IllegalArgumentException();
+    entries[(int)(token & mask)] = data;
+  }
+
+  public void publish(long token) {
+    sequencer.publish(token, token);
+  }
+
+  public void publish(long from, long to) {
+    sequencer.publish(from, to);
+  }
+
+  public @Nonnull LongConsumer subscribe(Cursor... after) {
+    return new LongConsumer(Subscription.batching(sequencer, delivery, after));
+  }
+
+  public @Nonnull LongConsumer subscribeFrom(long sequence, Cursor... after) {
+    final Cursor.Write cursor = sequencer.join(sequence);
+    if (cursor == null) throw new IllegalArgumentException("sequence");
+    return new LongConsumer(Subscription.batching(sequencer, delivery, cursor, after));
+  }
+
+  public @Nonnull LongConsumer subscribeResident(Cursor... after) {
+    return new LongConsumer(Subscription.batching(sequencer, delivery, sequencer.joinResident(), after));
+  }
+
+  public @Nonnull LongConsumer[] subscribe(int amount, Cursor... after) {
+    return subscribe(amount, 1, after);
+  }
+
+  public @Nonnull LongConsumer[] subscribe(int amount, int batch, Cursor... after) {
+    final Subscription<LongConsume>[] subscriptions = Subscription.parallel(sequencer, delivery, amount, batch, after);
+    final LongConsumer[] result = new LongConsumer[amount];
+    for (int i = 0; i < amount; i++) result[i] = new LongConsumer(subscriptions[i]);
+    return result;
+  }
+
+  public boolean unsubscribe(LongConsumer consumer) {
+    return sequencer.expel(consumer.cursor());
+  }
+
+  public void retain(int entries) {
+    sequencer.retain(entries);
+  }
+
+  public long lastPublished(long from, long to) {
+    return sequencer.lastPublished(from, to);
+  }
+
+  public @Nonnull Cursor cursor() {
+    return sequencer.cursor;
+  }
+
+  public @Nonnull BufferMetrics metrics() {
+    return new BufferMetrics(sequencer);
+  }
+
+  public static @Nonnull LongRingBuffer singleProducer(int minSize) {
+    if (minSize < 1) throw new IllegalArgumentException();
+    minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
+    return new LongRingBuffer(Sequencer.singleProducer(minSize, null));
+  }
+
+  public static @Nonnull LongRingBuffer singleProducer(int minSize, Runnable onPublish) {
+    if (minSize < 1) throw new IllegalArgumentException();
+    minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
+    return new LongRingBuffer(Sequencer.singleProducer(minSize, onPublish));
+  }
+
+  public static @Nonnull LongRingBuffer multiProducer(int minSize) {
+    if (minSize < 1) throw new IllegalArgumentException();
+    minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
+    return new LongRingBuffer(Sequencer.multiProducer(minSize, null));
+  }
+
+  public static @Nonnull LongRingBuffer multiProducer(int minSize, Runnable onPublish) {
+    if (minSize < 1) throw new IllegalArgumentException();
+    minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
+    return new LongRingBuffer(Sequencer.multiProducer(minSize, onPublish));
+  }
+
+  public static @Nonnull LongRingBuffer multiProducerBatched(int minSize) {
+    if (minSize < 1) throw new IllegalArgumentException();
+    minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
+    return new LongRingBuffer(Sequencer.multiProducerBatched(minSize, null));
+  }
+
+  public static @Nonnull LongRingBuffer multiProducerBatched(int minSize, Runnable onPublish) {
+    if (minSize < 1) throw new IllegalArgumentException();
+    minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
+    return new LongRingBuffer(Sequencer.multiProducerBatched(minSize, onPublish));
+  }
+
+}
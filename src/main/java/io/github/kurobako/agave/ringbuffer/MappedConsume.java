@@ -0,0 +1,8 @@
+package io.github.kurobako.agave.ringbuffer;
+
+@FunctionalInterface
+public interface MappedConsume {
+
+  boolean consume(MappedRingBuffer.Slice data, boolean more);
+
+}
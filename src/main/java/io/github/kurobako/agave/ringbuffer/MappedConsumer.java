@@ -0,0 +1,30 @@
+package io.github.kurobako.agave.ringbuffer;
+
+import io.github.kurobako.agave.ringbuffer.Consumer.State;
+
+import javax.annotation.Nonnull;
+
+public final class MappedConsumer {
+  private final @Nonnull Subscription<MappedConsume> subscription;
+
+  MappedConsumer(Subscription<MappedConsume> subscription) {
+    this.subscription = subscription;
+  }
+
+  public @Nonnull State consume(MappedConsume with) {
+    return subscription.consume(with);
+  }
+
+  public @Nonnull State await(MappedConsume with, WaitStrategy strategy) {
+    return subscription.await(with, strategy);
+  }
+
+  public @Nonnull Cursor cursor() {
+    return subscription.cursor();
+  }
+
+  public @Nonnull ConsumerMetrics metrics() {
+    return subscription.metrics();
+  }
+
+}
@@ -0,0 +1,35 @@
+package io.github.kurobako.agave.ringbuffer;
+
+import javax.annotation.Nonnull;
+
+final class MappedCursor extends Cursor.Atomic {
+  private final @Nonnull MappedMemory memory;
+  final long offset;
+
+  MappedCursor(MappedMemory memory, long offset) {
+    assert (offset & 7) == 0;
+    this.memory = memory;
+    this.offset = offset;
+  }
+
+  @Override
+  public long readVolatile() {
+    return memory.getLongVolatile(offset);
+  }
+
+  @Override
+  void writeOrdered(long value) {
+    memory.putLongOrdered(offset, value);
+  }
+
+  @Override
+  void writeVolatile(long value) {
+    memory.putLongVolatile(offset, value);
+  }
+
+  @Override
+  boolean compareAndSwap(long expected, long updated) {
+    return memory.compareAndSwapLong(offset, expected, updated);
+  }
+
+}
@@ -0,0 +1,128 @@
+package io.github.kurobako.agave.ringbuffer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Math.min;
+
+final class MappedMembershipCursors extends Cursor.Membership {
+  static final long VACANT = Long.MAX_VALUE;
+  private static final long RECLAIM_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final @Nonnull MappedCursor[] members;
+  private final @Nonnull FileChannel channel;
+  private final @Nonnull FileLock[] held;
+  private volatile long reclaimed = System.nanoTime();
+
+  MappedMembershipCursors(MappedCursor[] members, FileChannel channel) {
+    this.members = members;
+    this.channel = channel;
+    this.held = new FileLock[members.length];
+  }
+
+  @Override
+  public long readVolatile() {
+    final long now = System.nanoTime();
+    if (now - reclaimed >= RECLAIM_INTERVAL_NANOS) {
+      reclaimed = now;
+      reclaim();
+    }
+    long result = Long.MAX_VALUE;
+    for (MappedCursor cursor : members) {
+      result = min(result, cursor.readVolatile());
+    }
+    return result;
+  }
+
+  @Override
+  @Nonnull Cursor.Write join(Cursor resetTo) {
+    final Cursor.Atomic result = reserve();
+    result.writeVolatile(resetTo.readVolatile());
+    return result;
+  }
+
+  @Override
+  synchronized @Nonnull Cursor.Atomic reserve() {
+    for (int i = 0; i < members.length; i++) {
+      if (held[i] != null || members[i].readVolatile() != VACANT) continue;
+      final FileLock lock = tryLock(i);
+      if (lock == null) continue;
+      held[i] = lock;
+      members[i].writeVolatile(VACANT);
+      return members[i];
+    }
+    throw new IllegalStateException("no vacant consumer slots");
+  }
+
+  @Override
+  synchronized void invite(Cursor resetTo, Cursor.Write... newMembers) {
+    for (Cursor.Write member : newMembers) {
+      if (owned(member) == -1) throw new IllegalArgumentException("not reserved from this buffer");
+    }
+    final long resetValue = resetTo.readVolatile();
+    for (Cursor.Write member : newMembers) member.writeOrdered(resetValue);
+  }
+
+  @Override
+  synchronized boolean expel(Cursor member) {
+    final int index = owned(member);
+    if (index == -1) return false;
+    members[index].writeVolatile(VACANT);
+    release(index);
+    return true;
+  }
+
+  synchronized void close() {
+    for (int i = 0; i < members.length; i++) {
+      if (held[i] == null) continue;
+      members[i].writeVolatile(VACANT);
+      release(i);
+    }
+  }
+
+  private synchronized void reclaim() {
+    for (int i = 0; i < members.length; i++) {
+      if (held[i] != null || members[i].readVolatile() == VACANT) continue;
+      final FileLock lock = tryLock(i);
+      if (lock == null) continue;
+      held[i] = lock;
+      members[i].writeVolatile(VACANT);
+      release(i);
+    }
+  }
+
+  private int owned(Cursor member) {
+    final Cursor backing = member instanceof ParallelCursors ? ((ParallelCursors) member).completed : member;
+    for (int i = 0; i < members.length; i++) {
+      if (members[i] == backing && held[i] != null) return i;
+    }
+    return -1;
+  }
+
+  private @Nullable FileLock tryLock(int index) {
+    try {
+      return channel.tryLock(members[index].offset, 1L, false);
+    } catch (OverlappingFileLockException e) {
+      return null;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void release(int index) {
+    try {
+      held[index].release();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      held[index] = null;
+    }
+  }
+
+}
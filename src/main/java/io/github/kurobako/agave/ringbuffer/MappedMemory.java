@@ -0,0 +1,126 @@
+package io.github.kurobako.agave.ringbuffer;
+
+import sun.misc.Cleaner;
+import sun.misc.Unsafe;
+import sun.nio.ch.DirectBuffer;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+final class MappedMemory {
+  private static final @Nonnull Unsafe UNSAFE;
+  private static final long BYTE_ARRAY_OFFSET;
+
+  static {
+    try {
+      final Field field = Unsafe.class.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      UNSAFE = (Unsafe) field.get(null);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+    BYTE_ARRAY_OFFSET = UNSAFE.arrayBaseOffset(byte[].class);
+  }
+
+  private final @Nonnull MappedByteBuffer buffer;
+  private final long address;
+  final long length;
+
+  private MappedMemory(MappedByteBuffer buffer) {
+    this.buffer = buffer;
+    address = ((DirectBuffer) buffer).address();
+    length = buffer.capacity();
+  }
+
+  static @Nonnull MappedMemory create(Path path, long length) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, CREATE, TRUNCATE_EXISTING, READ, WRITE)) {
+      return map(channel, length);
+    }
+  }
+
+  static @Nonnull MappedMemory open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, READ, WRITE)) {
+      return map(channel, channel.size());
+    }
+  }
+
+  static @Nonnull MappedMemory map(FileChannel channel, long length) throws IOException {
+    if (length < 0 || length > Integer.MAX_VALUE) throw new IllegalArgumentException();
+    return new MappedMemory(channel.map(FileChannel.MapMode.READ_WRITE, 0, length));
+  }
+
+  void force() {
+    buffer.force();
+  }
+
+  void unmap() {
+    final Cleaner cleaner = ((DirectBuffer) buffer).cleaner();
+    if (cleaner != null) cleaner.clean();
+  }
+
+  byte getByte(long offset) {
+    return UNSAFE.getByte(address + offset);
+  }
+
+  void putByte(long offset, byte value) {
+    UNSAFE.putByte(address + offset, value);
+  }
+
+  int getInt(long offset) {
+    return UNSAFE.getInt(address + offset);
+  }
+
+  void putInt(long offset, int value) {
+    UNSAFE.putInt(address + offset, value);
+  }
+
+  int getIntVolatile(long offset) {
+    return UNSAFE.getIntVolatile(null, address + offset);
+  }
+
+  void putIntOrdered(long offset, int value) {
+    UNSAFE.putOrderedInt(null, address + offset, value);
+  }
+
+  long getLong(long offset) {
+    return UNSAFE.getLong(address + offset);
+  }
+
+  void putLong(long offset, long value) {
+    UNSAFE.putLong(address + offset, value);
+  }
+
+  long getLongVolatile(long offset) {
+    return UNSAFE.getLongVolatile(null, address + offset);
+  }
+
+  void putLongVolatile(long offset, long value) {
+    UNSAFE.putLongVolatile(null, address + offset, value);
+  }
+
+  void putLongOrdered(long offset, long value) {
+    UNSAFE.putOrderedLong(null, address + offset, value);
+  }
+
+  boolean compareAndSwapLong(long offset, long expected, long updated) {
+    return UNSAFE.compareAndSwapLong(null, address + offset, expected, updated);
+  }
+
+  void getBytes(long offset, byte[] dst, int dstOffset, int length) {
+    UNSAFE.copyMemory(null, address + offset, dst, BYTE_ARRAY_OFFSET + dstOffset, length);
+  }
+
+  void putBytes(long offset, byte[] src, int srcOffset, int length) {
+    UNSAFE.copyMemory(src, BYTE_ARRAY_OFFSET + srcOffset, null, address + offset, length);
+  }
+
+}
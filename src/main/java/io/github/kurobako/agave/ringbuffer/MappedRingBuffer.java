@@ -0,0 +1,318 @@
+package io.github.kurobako.agave.ringbuffer;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Math.pow;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+public final class MappedRingBuffer implements AutoCloseable {
+  private static final int MAGIC = 0x41475242;
+  private static final int VERSION = 1;
+  private static final int LINE = 128;
+  private static final long MAGIC_OFFSET = 0;
+  private static final long VERSION_OFFSET = 4;
+  private static final long PRODUCERS_OFFSET = 8;
+  private static final long SIZE_OFFSET = 12;
+  private static final long RECORD_SIZE_OFFSET = 16;
+  private static final long CONSUMERS_OFFSET = 20;
+  private static final long CURSOR_OFFSET = LINE;
+  private static final long MEMBERS_OFFSET = 2 * LINE;
+  private static final int SINGLE_PRODUCER = 1;
+  private static final int MULTI_PRODUCER = 2;
+
+  private final @Nonnull FileChannel channel;
+  private final @Nonnull MappedMemory memory;
+  private final @Nonnull MappedMembershipCursors gate;
+  private final @Nonnull Sequencer sequencer;
+  private final @Nonnull ThreadLocal<Slice> slices = ThreadLocal.withInitial(this::slice);
+  private final int recordSize;
+  private final int stride;
+  private final int mask;
+  private final long recordsOffset;
+  private boolean closed;
+
+  private MappedRingBuffer(FileChannel channel, MappedMemory memory, boolean create, int producers, int size, int recordSize, int consumers) {
+    this.channel = channel;
+    this.memory = memory;
+    this.recordSize = recordSize;
+    stride = align(recordSize, 8);
+    mask = size - 1;
+    final long availabilityOffset = align(MEMBERS_OFFSET + (long) LINE * consumers, LINE);
+    recordsOffset = align(availabilityOffset + (producers == MULTI_PRODUCER ? 4L * size : 0L), LINE);
+    if (recordsOffset + (long) stride * size > memory.length) throw new IllegalStateException("truncated ring buffer");
+    final MappedCursor cursor = new MappedCursor(memory, CURSOR_OFFSET);
+    final MappedCursor[] members = new MappedCursor[consumers];
+    for (int i = 0; i < consumers; i++) {
+      members[i] = new MappedCursor(memory, MEMBERS_OFFSET + (long) LINE * i);
+      if (create) members[i].writeOrdered(MappedMembershipCursors.VACANT);
+    }
+    if (create) cursor.writeVolatile(-1L);
+    gate = new MappedMembershipCursors(members, channel);
+    sequencer = producers == MULTI_PRODUCER ?
+      Sequencer.multiProducer(size, cursor, gate, Availability.mapped(memory, availabilityOffset, size, create), null) :
+      Sequencer.singleProducer(size, cursor, gate, null);
+  }
+
+  public long tryClaim() {
+    return sequencer.tryClaim(1);
+  }
+
+  public long tryClaim(int amount) {
+    return sequencer.tryClaim(amount);
+  }
+
+  public long claim() {
+    return sequencer.claim(1, Sequencer.PARK);
+  }
+
+  public long claim(int amount) {
+    return sequencer.claim(amount, Sequencer.PARK);
+  }
+
+  public long claim(WaitStrategy strategy) {
+    return sequencer.claim(1, strategy);
+  }
+
+  public long claim(int amount, WaitStrategy strategy) {
+    return sequencer.claim(amount, strategy);
+  }
+
+  public long claim(long timeout, TimeUnit unit) {
+    return sequencer.claim(1, unit.toNanos(timeout), Sequencer.PARK);
+  }
+
+  public long claim(int amount, long timeout, TimeUnit unit) {
+    return sequencer.claim(amount, unit.toNanos(timeout), Sequencer.PARK);
+  }
+
+  public long claim(int amount, long timeout, TimeUnit unit, WaitStrategy strategy) {
+    return sequencer.claim(amount, unit.toNanos(timeout), strategy);
+  }
+
+  public @Nonnull CompletionStage<Long> claimAsync(ScheduledExecutorService executor) {
+    return Sequencer.claimAsync(sequencer::tryClaim, 1, executor);
+  }
+
+  public @Nonnull CompletionStage<Long> claimAsync(int amount, ScheduledExecutorService executor) {
+    return Sequencer.claimAsync(sequencer::tryClaim, amount, executor);
+  }
+
+  public @Nonnull Slice slice() {
+    return new Slice(this);
+  }
+
+  public void publish(long token) {
+    sequencer.publish(token, token);
+  }
+
+  public void publish(long from, long to) {
+    sequencer.publish(from, to);
+  }
+
+  public @Nonnull MappedConsumer subscribe(Cursor... after) {
+    final Slice slice = slice();
+    return new MappedConsumer(Subscription.batching(sequencer, (with, token, more) -> with.consume(slice.wrap(token), more), after));
+  }
+
+  public @Nonnull MappedConsumer[] subscribe(int amount, int batch, Cursor... after) {
+    if (amount < 1) throw new IllegalArgumentException();
+    if (batch < 1) throw new IllegalArgumentException();
+    final ParallelCursors groupCursor = new ParallelCursors(sequencer.size, sequencer.reserve());
+    final MappedConsumer[] result = new MappedConsumer[amount];
+    for (int i = 0; i < amount; i++) {
+      final Slice slice = slice();
+      result[i] = new MappedConsumer(Subscription.<MappedConsume>parallel(sequencer, (with, token, more) -> with.consume(slice.wrap(token), more), groupCursor, 1, batch, after)[0]);
+    }
+    sequencer.invite(groupCursor);
+    return result;
+  }
+
+  public @Nonnull Topology.Builder<Slice> topology() {
+    return new Topology.Builder<>(sequencer, (with, token, more) -> with.consume(slices.get().wrap(token), more));
+  }
+
+  public boolean unsubscribe(MappedConsumer consumer) {
+    return sequencer.expel(consumer.cursor());
+  }
+
+  public long lastPublished(long from, long to) {
+    return sequencer.lastPublished(from, to);
+  }
+
+  public @Nonnull Cursor cursor() {
+    return sequencer.cursor;
+  }
+
+  public @Nonnull BufferMetrics metrics() {
+    return new BufferMetrics(sequencer);
+  }
+
+  public int recordSize() {
+    return recordSize;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) return;
+    closed = true;
+    try {
+      gate.close();
+    } finally {
+      memory.unmap();
+      channel.close();
+    }
+  }
+
+  public static @Nonnull MappedRingBuffer singleProducer(Path path, int minSize, int recordSize, int maxConsumers) throws IOException {
+    return create(path, SINGLE_PRODUCER, minSize, recordSize, maxConsumers);
+  }
+
+  public static @Nonnull MappedRingBuffer multiProducer(Path path, int minSize, int recordSize, int maxConsumers) throws IOException {
+    return create(path, MULTI_PRODUCER, minSize, recordSize, maxConsumers);
+  }
+
+  public static @Nonnull MappedRingBuffer open(Path path) throws IOException {
+    final FileChannel channel = FileChannel.open(path, READ, WRITE);
+    MappedMemory memory = null;
+    try {
+      memory = MappedMemory.map(channel, channel.size());
+      if (memory.length < MEMBERS_OFFSET || memory.getIntVolatile(MAGIC_OFFSET) != MAGIC) throw new IOException("not a ring buffer: " + path);
+      if (memory.getInt(VERSION_OFFSET) != VERSION) throw new IOException("unsupported version: " + memory.getInt(VERSION_OFFSET));
+      final int producers = memory.getInt(PRODUCERS_OFFSET);
+      final int size = memory.getInt(SIZE_OFFSET);
+      final int recordSize = memory.getInt(RECORD_SIZE_OFFSET);
+      final int consumers = memory.getInt(CONSUMERS_OFFSET);
+      if (size < 1 || Integer.bitCount(size) != 1 || recordSize < 1 || consumers < 1) throw new IOException("corrupt header: " + path);
+      return new MappedRingBuffer(channel, memory, false, producers, size, recordSize, consumers);
+    } catch (IOException | RuntimeException e) {
+      if (memory != null) memory.unmap();
+      channel.close();
+      throw e;
+    }
+  }
+
+  private static @Nonnull MappedRingBuffer create(Path path, int producers, int minSize, int recordSize, int maxConsumers) throws IOException {
+    if (minSize < 1) throw new IllegalArgumentException();
+    if (recordSize < 1) throw new IllegalArgumentException();
+    if (maxConsumers < 1) throw new IllegalArgumentException();
+    minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
+    final long availabilityOffset = align(MEMBERS_OFFSET + (long) LINE * maxConsumers, LINE);
+    final long recordsOffset = align(availabilityOffset + (producers == MULTI_PRODUCER ? 4L * minSize : 0L), LINE);
+    final FileChannel channel = FileChannel.open(path, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+    MappedMemory memory = null;
+    try {
+      memory = MappedMemory.map(channel, recordsOffset + (long) align(recordSize, 8) * minSize);
+      memory.putInt(VERSION_OFFSET, VERSION);
+      memory.putInt(PRODUCERS_OFFSET, producers);
+      memory.putInt(SIZE_OFFSET, minSize);
+      memory.putInt(RECORD_SIZE_OFFSET, recordSize);
+      memory.putInt(CONSUMERS_OFFSET, maxConsumers);
+      final MappedRingBuffer result = new MappedRingBuffer(channel, memory, true, producers, minSize, recordSize, maxConsumers);
+      memory.putIntOrdered(MAGIC_OFFSET, MAGIC);
+      return result;
+    } catch (IOException | RuntimeException e) {
+      if (memory != null) memory.unmap();
+      channel.close();
+      throw e;
+    }
+  }
+
+  private static int align(int value, int alignment) {
+    return (value + alignment - 1) & -alignment;
+  }
+
+  private static long align(long value, int alignment) {
+    return (value + alignment - 1) & -alignment;
+  }
+
+  public static final class Slice {
+    private final @Nonnull MappedMemory memory;
+    private final long recordsOffset;
+    private final int stride;
+    private final int mask;
+    private final int length;
+    private long offset = -1L;
+
+    private Slice(MappedRingBuffer buffer) {
+      memory = buffer.memory;
+      recordsOffset = buffer.recordsOffset;
+      stride = buffer.stride;
+      mask = buffer.mask;
+      length = buffer.recordSize;
+    }
+
+    public @Nonnull Slice wrap(long token) {
+      if (token < 0) throw new IllegalArgumentException();
+      offset = recordsOffset + (long) stride * (token & mask);
+      return this;
+    }
+
+    public int length() {
+      return length;
+    }
+
+    public byte getByte(int index) {
+      return memory.getByte(at(index, 1));
+    }
+
+    public @Nonnull Slice putByte(int index, byte value) {
+      memory.putByte(at(index, 1), value);
+      return this;
+    }
+
+    public int getInt(int index) {
+      return memory.getInt(at(index, 4));
+    }
+
+    public @Nonnull Slice putInt(int index, int value) {
+      memory.putInt(at(index, 4), value);
+      return this;
+    }
+
+    public long getLong(int index) {
+      return memory.getLong(at(index, 8));
+    }
+
+    public @Nonnull Slice putLong(int index, long value) {
+      memory.putLong(at(index, 8), value);
+      return this;
+    }
+
+    public double getDouble(int index) {
+      return Double.longBitsToDouble(memory.getLong(at(index, 8)));
+    }
+
+    public @Nonnull Slice putDouble(int index, double value) {
+      memory.putLong(at(index, 8), Double.doubleToRawLongBits(value));
+      return this;
+    }
+
+    public @Nonnull Slice getBytes(int index, byte[] dst, int dstOffset, int length) {
+      if (dstOffset < 0 || length < 0 || dstOffset > dst.length - length) throw new IndexOutOfBoundsException();
+      memory.getBytes(at(index, length), dst, dstOffset, length);
+      return this;
+    }
+
+    public @Nonnull Slice putBytes(int index, byte[] src, int srcOffset, int length) {
+      if (srcOffset < 0 || length < 0 || srcOffset > src.length - length) throw new IndexOutOfBoundsException();
+      memory.putBytes(at(index, length), src, srcOffset, length);
+      return this;
+    }
+
+    private long at(int index, int width) {
+      if (offset < 0) throw new IllegalStateException();
+      if (index < 0 || index > length - width) throw new IndexOutOfBoundsException();
+      return offset + index;
+    }
+  }
+
+}
@@ -0,0 +1,83 @@
+package io.github.kurobako.agave.ringbuffer;
+
+import sun.misc.Contended;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import static java.lang.Integer.numberOfLeadingZeros;
+
+@Contended
+final class ParallelCursors extends Cursor.Write {
+  private static final @Nonnull AtomicReferenceFieldUpdater<ParallelCursors, Run> RETURNED_UPDATER = AtomicReferenceFieldUpdater.newUpdater(ParallelCursors.class, Run.class, "returned");
+
+  final @Nonnull AtomicCursor claimed = new AtomicCursor();
+  final @Nonnull Cursor.Atomic completed;
+  private final @Nonnull AtomicIntegerArray laps;
+  private final int mask;
+  private final int shift;
+  private volatile @Nullable Run returned;
+
+  ParallelCursors(int size, Cursor.Atomic completed) {
+    assert 0 < size && Integer.bitCount(size) == 1;
+    this.completed = completed;
+    laps = new AtomicIntegerArray(size);
+    for (int i = 0; i < size; i++) laps.lazySet(i, -1);
+    mask = size - 1;
+    shift = 31 - numberOfLeadingZeros(size);
+  }
+
+  @Override
+  public long readVolatile() {
+    return completed.readVolatile();
+  }
+
+  @Override
+  void writeOrdered(long value) {
+    claimed.writeOrdered(value);
+    completed.writeOrdered(value);
+  }
+
+  void complete(long from, long to) {
+    for (long i = from; i <= to; i++) laps.set(((int) i) & mask, (int) (i >>> shift));
+    long current;
+    long last;
+    do {
+      current = completed.readVolatile();
+      final long limit = claimed.readVolatile();
+      last = current;
+      while (last < limit && laps.get(((int) (last + 1)) & mask) == (int) ((last + 1) >>> shift)) last++;
+      if (last == current) return;
+    } while (!completed.compareAndSwap(current, last) || last < claimed.readVolatile());
+  }
+
+  void offer(long from, long to) {
+    final Run run = new Run(from, to);
+    do {
+      run.next = returned;
+    } while (!RETURNED_UPDATER.compareAndSet(this, run.next, run));
+  }
+
+  @Nullable Run poll() {
+    Run result;
+    do {
+      result = returned;
+      if (result == null) return null;
+    } while (!RETURNED_UPDATER.compareAndSet(this, result, result.next));
+    return result;
+  }
+
+  static final class Run {
+    final long from;
+    final long to;
+    @Nullable Run next;
+
+    Run(long from, long to) {
+      this.from = from;
+      this.to = to;
+    }
+  }
+
+}
@@ -0,0 +1,262 @@
+package io.github.kurobako.agave.ringbuffer;
+
+import sun.misc.Contended;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.Supplier;
+
+public final class Processor {
+  private static final int RUNNING = 0;
+  private static final int DRAINING = 1;
+  private static final int STOPPED = 2;
+
+  private final @Nonnull Worker[] workers;
+  private final @Nonnull Thread[] threads;
+  private final @Nonnull WaitStrategy idle;
+  private volatile int mode = RUNNING;
+  private long[] drainStarted;
+  private long drainWorking = -1L;
+
+  private Processor(Map<String, ? extends Iterable<? extends Supplier<Consumer.State>>> steps, WaitStrategy idle, ThreadFactory threadFactory) {
+    final List<Worker> workers = new ArrayList<>();
+    for (Map.Entry<String, ? extends Iterable<? extends Supplier<Consumer.State>>> entry : steps.entrySet()) {
+      int index = 0;
+      for (Supplier<Consumer.State> step : entry.getValue()) workers.add(new Worker(entry.getKey(), index++, step));
+    }
+    if (workers.isEmpty()) throw new IllegalArgumentException("steps");
+    this.workers = workers.toArray(new Worker[0]);
+    this.idle = idle;
+    threads = new Thread[this.workers.length];
+    for (int i = 0; i < threads.length; i++) {
+      final Worker worker = this.workers[i];
+      threads[i] = threadFactory.newThread(() -> run(worker));
+    }
+  }
+
+  public void drain() {
+    if (mode == RUNNING) mode = DRAINING;
+  }
+
+  public void stop() {
+    mode = STOPPED;
+  }
+
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (Thread thread : threads) {
+      final long remaining = deadline - System.nanoTime();
+      if (remaining <= 0L) return isTerminated();
+      TimeUnit.NANOSECONDS.timedJoin(thread, remaining);
+    }
+    return isTerminated();
+  }
+
+  public boolean isTerminated() {
+    for (Thread thread : threads) {
+      if (thread.isAlive()) return false;
+    }
+    return true;
+  }
+
+  public @Nullable Throwable failure() {
+    for (Worker worker : workers) {
+      final Throwable result = worker.failure;
+      if (result != null) return result;
+    }
+    return null;
+  }
+
+  public @Nonnull Map<String, List<Utilization>> utilization() {
+    final Map<String, List<Utilization>> result = new LinkedHashMap<>();
+    for (Worker worker : workers) result.computeIfAbsent(worker.id, id -> new ArrayList<>()).add(worker.utilization());
+    for (Map.Entry<String, List<Utilization>> entry : result.entrySet()) entry.setValue(Collections.unmodifiableList(entry.getValue()));
+    return Collections.unmodifiableMap(result);
+  }
+
+  public static @Nonnull Processor start(Map<String, ? extends Iterable<? extends Supplier<Consumer.State>>> steps, WaitStrategy idle) {
+    return start(steps, idle, runnable -> new Thread(runnable));
+  }
+
+  public static @Nonnull Processor start(Map<String, ? extends Iterable<? extends Supplier<Consumer.State>>> steps, WaitStrategy idle, ThreadFactory threadFactory) {
+    //noinspection ConstantConditions
+    if (steps == null) throw new NullPointerException("steps");
+    //noinspection ConstantConditions
+    if (idle == null) throw new NullPointerException("idle");
+    //noinspection ConstantConditions
+    if (threadFactory == null) throw new NullPointerException("threadFactory");
+    final Processor result = new Processor(steps, idle, threadFactory);
+    for (Thread thread : result.threads) thread.start();
+    return result;
+  }
+
+  private void run(Worker worker) {
+    int attempt = 0;
+    int current;
+    while ((current = mode) != STOPPED && !Thread.currentThread().isInterrupted()) {
+      final long ticket = idle.ticket();
+      final Consumer.State state;
+      try {
+        state = worker.step();
+      } catch (Throwable e) {
+        worker.failure = e;
+        final Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        return;
+      }
+      if (state == Consumer.State.WORKING) {
+        attempt = 0;
+        continue;
+      }
+      if (current == DRAINING && coordinator() == worker && quiescent()) {
+        mode = STOPPED;
+        return;
+      }
+      idle.await(ticket, attempt);
+      if (attempt < Integer.MAX_VALUE) attempt++;
+    }
+  }
+
+  private @Nullable Worker coordinator() {
+    for (Worker worker : workers) {
+      if (worker.failure == null) return worker;
+    }
+    return null;
+  }
+
+  private boolean quiescent() {
+    if (drainStarted != null) {
+      for (int i = 0; i < workers.length; i++) {
+        if (workers[i].failure == null && workers[i].lastIdle <= drainStarted[i]) return false;
+      }
+      if (working() == drainWorking) return true;
+    }
+    drainWorking = working();
+    final long[] started = new long[workers.length];
+    for (int i = 0; i < workers.length; i++) started[i] = workers[i].started;
+    drainStarted = started;
+    return false;
+  }
+
+  private long working() {
+    long result = 0L;
+    for (Worker worker : workers) result += worker.working;
+    return result;
+  }
+
+  public static final class Utilization {
+    private final int index;
+    private final long working;
+    private final long idle;
+    private final long gating;
+    private final long workingNanos;
+    private final @Nullable Throwable failure;
+
+    private Utilization(int index, long working, long idle, long gating, long workingNanos, @Nullable Throwable failure) {
+      this.index = index;
+      this.working = working;
+      this.idle = idle;
+      this.gating = gating;
+      this.workingNanos = workingNanos;
+      this.failure = failure;
+    }
+
+    public int index() {
+      return index;
+    }
+
+    public long working() {
+      return working;
+    }
+
+    public long idle() {
+      return idle;
+    }
+
+    public long gating() {
+      return gating;
+    }
+
+    public long workingNanos() {
+      return workingNanos;
+    }
+
+    public @Nullable Throwable failure() {
+      return failure;
+    }
+
+    public double ratio() {
+      final long total = working + idle + gating;
+      return total == 0L ? 0.0 : (double) working / total;
+    }
+
+    @Override
+    public String toString() {
+      return "Utilization{index=" + index + ", working=" + working + ", idle=" + idle + ", gating=" + gating + ", workingNanos=" + workingNanos + ", failure=" + failure + "}";
+    }
+  }
+
+  @Contended
+  private static final class Worker {
+    private static final @Nonnull AtomicLongFieldUpdater<Worker> STARTED_UPDATER = AtomicLongFieldUpdater.newUpdater(Worker.class, "started");
+    private static final @Nonnull AtomicLongFieldUpdater<Worker> LAST_IDLE_UPDATER = AtomicLongFieldUpdater.newUpdater(Worker.class, "lastIdle");
+    private static final @Nonnull AtomicLongFieldUpdater<Worker> WORKING_UPDATER = AtomicLongFieldUpdater.newUpdater(Worker.class, "working");
+    private static final @Nonnull AtomicLongFieldUpdater<Worker> IDLE_UPDATER = AtomicLongFieldUpdater.newUpdater(Worker.class, "idle");
+    private static final @Nonnull AtomicLongFieldUpdater<Worker> GATING_UPDATER = AtomicLongFieldUpdater.newUpdater(Worker.class, "gating");
+    private static final @Nonnull AtomicLongFieldUpdater<Worker> WORKING_NANOS_UPDATER = AtomicLongFieldUpdater.newUpdater(Worker.class, "workingNanos");
+
+    final @Nonnull String id;
+    final int index;
+    private final @Nonnull Supplier<Consumer.State> step;
+    volatile long started;
+    volatile long lastIdle;
+    volatile long working;
+    private volatile long idle;
+    private volatile long gating;
+    private volatile long workingNanos;
+    volatile @Nullable Throwable failure;
+
+    Worker(String id, int index, Supplier<Consumer.State> step) {
+      this.id = id;
+      this.index = index;
+      this.step = step;
+    }
+
+    @Nonnull Consumer.State step() {
+      final long call = started + 1;
+      STARTED_UPDATER.set(this, call);
+      final long from = System.nanoTime();
+      final Consumer.State result = step.get();
+      switch (result) {
+        case WORKING: {
+          WORKING_NANOS_UPDATER.lazySet(this, workingNanos + System.nanoTime() - from);
+          WORKING_UPDATER.set(this, working + 1);
+          break;
+        }
+        case IDLE: {
+          IDLE_UPDATER.lazySet(this, idle + 1);
+          LAST_IDLE_UPDATER.set(this, call);
+          break;
+        }
+        case GATING: {
+          GATING_UPDATER.lazySet(this, gating + 1);
+          break;
+        }
+      }
+      return result;
+    }
+
+    @Nonnull Utilization utilization() {
+      return new Utilization(index, working, idle, gating, workingNanos, failure);
+    }
+  }
+
+}
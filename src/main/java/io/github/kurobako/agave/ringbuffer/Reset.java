@@ -0,0 +1,8 @@
+package io.github.kurobako.agave.ringbuffer;
+
+@FunctionalInterface
+public interface Reset<E> {
+
+  void reset(E entry);
+
+}
@@ -4,16 +4,18 @@ import sun.misc.Contended;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-import java.util.concurrent.atomic.AtomicIntegerArray;
-import java.util.concurrent.locks.LockSupport;
-
-import static java.lang.Integer.numberOfLeadingZeros;
-import static java.lang.Math.min;
 import static java.lang.Math.pow;
 
 public abstract class RingBuffer<E> {
-  private RingBuffer() {}
+  final @Nonnull Sequencer sequencer;
+
+  private RingBuffer(Sequencer sequencer) {
+    this.sequencer = sequencer;
+  }
 
   public final long tryClaim() {
     return tryClaim(1);
@@ -26,13 +28,35 @@ public abstract class RingBuffer<E> {
   }
 
   public final long claim(int amount) {
-    if (amount < 1) throw new IllegalArgumentException();
-    long result = tryClaim(amount);
-    while (result == -1L) {
-      result = tryClaim(amount);
-      LockSupport.parkNanos(1L);
-    }
-    return result;
+    return claim(amount, Sequencer.PARK);
+  }
+
+  public final long claim(WaitStrategy strategy) {
+    return claim(1, strategy);
+  }
+
+  public final long claim(int amount, WaitStrategy strategy) {
+    return sequencer.claim(amount, strategy);
+  }
+
+  public final long claim(long timeout, TimeUnit unit) {
+    return claim(1, timeout, unit, Sequencer.PARK);
+  }
+
+  public final long claim(int amount, long timeout, TimeUnit unit) {
+    return claim(amount, timeout, unit, Sequencer.PARK);
+  }
+
+  public final long claim(int amount, long timeout, TimeUnit unit, WaitStrategy strategy) {
+    return sequencer.claim(amount, unit.toNanos(timeout), strategy);
+  }
+
+  public final @Nonnull CompletionStage<Long> claimAsync(ScheduledExecutorService executor) {
+    return claimAsync(1, executor);
+  }
+
+  public final @Nonnull CompletionStage<Long> claimAsync(int amount, ScheduledExecutorService executor) {
+    return Sequencer.claimAsync(sequencer::tryClaim, amount, executor);
   }
 
   public abstract E read(long token);
@@ -47,203 +71,279 @@ public abstract class RingBuffer<E> {
 
   public abstract @Nonnull Consumer<E> subscribe(@Nonnull Cursor... after);
 
-  public abstract @Nonnull Consumer<E>[] subscribe(int amount, @Nonnull Cursor... after);
+  public final @Nonnull Consumer<E>[] subscribe(int amount, @Nonnull Cursor... after) {
+    return subscribe(amount, 1, after);
+  }
+
+  public abstract @Nonnull Consumer<E>[] subscribe(int amount, int batch, @Nonnull Cursor... after);
+
+  public abstract @Nonnull Consumer<E> subscribeFrom(long sequence, @Nonnull Cursor... after);
+
+  public abstract @Nonnull Consumer<E> subscribeResident(@Nonnull Cursor... after);
+
+  public abstract @Nonnull Consumer<E> subscribeReleasing(@Nonnull Cursor... after);
+
+  public abstract @Nonnull Consumer<E>[] subscribeReleasing(int amount, int batch, @Nonnull Cursor... after);
 
   public abstract boolean unsubscribe(@Nonnull Consumer<E> consumer);
 
+  public abstract void retain(int entries);
+
   public abstract long lastPublished(long from, long to);
 
   public abstract @Nonnull Cursor cursor();
 
+  public abstract @Nonnull BufferMetrics metrics();
+
+  public abstract @Nonnull Topology.Builder<E> topology();
+
   public static @Nonnull <E> RingBuffer<E> singleProducer(int minSize) {
     if (minSize < 1) throw new IllegalArgumentException();
     minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
-    return new SingleProducerBuffer<>(minSize, null);
+    return new ArrayBuffer<>(Sequencer.singleProducer(minSize, null));
   }
 
   public static @Nonnull <E> RingBuffer<E> singleProducer(int minSize, Allocate<E> allocator) {
     if (minSize < 1) throw new IllegalArgumentException();
     minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
-    return new SingleProducerBuffer<>(minSize, allocator, null);
+    return new ArrayBuffer<>(Sequencer.singleProducer(minSize, null), allocator);
+  }
+
+  public static @Nonnull <E> RingBuffer<E> singleProducer(int minSize, Allocate<E> allocator, Reset<E> reset) {
+    if (minSize < 1) throw new IllegalArgumentException();
+    minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
+    return new ArrayBuffer<>(Sequencer.singleProducer(minSize, null), allocator, reset);
   }
 
   public static @Nonnull <E> RingBuffer<E> singleProducer(int minSize, Runnable onPublish) {
     if (minSize < 1) throw new IllegalArgumentException();
     minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
-    return new SingleProducerBuffer<>(minSize, onPublish);
+    return new ArrayBuffer<>(Sequencer.singleProducer(minSize, onPublish));
   }
 
   public static @Nonnull <E> RingBuffer<E> singleProducer(int minSize, Allocate<E> allocator, Runnable onPublish) {
     if (minSize < 1) throw new IllegalArgumentException();
     minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
-    return new SingleProducerBuffer<>(minSize, allocator, onPublish);
+    return new ArrayBuffer<>(Sequencer.singleProducer(minSize, onPublish), allocator);
+  }
+
+  public static @Nonnull <E> RingBuffer<E> singleProducer(int minSize, Allocate<E> allocator, Reset<E> reset, Runnable onPublish) {
+    if (minSize < 1) throw new IllegalArgumentException();
+    minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
+    return new ArrayBuffer<>(Sequencer.singleProducer(minSize, onPublish), allocator, reset);
+  }
+
+  public static @Nonnull <E> RingBuffer<E> singleProducerElastic(int minSize, int maxSize) {
+    return singleProducerElastic(minSize, maxSize, false, null);
+  }
+
+  public static @Nonnull <E> RingBuffer<E> singleProducerElastic(int minSize, int maxSize, boolean shrink) {
+    return singleProducerElastic(minSize, maxSize, shrink, null);
+  }
+
+  public static @Nonnull <E> RingBuffer<E> singleProducerElastic(int minSize, int maxSize, boolean shrink, Runnable onPublish) {
+    if (minSize < 1) throw new IllegalArgumentException();
+    if (maxSize < minSize) throw new IllegalArgumentException();
+    minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
+    maxSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(maxSize - 1));
+    final Segments<E> segments = new Segments<>(minSize);
+    return new ElasticBuffer<>(Sequencer.singleProducerElastic(minSize, maxSize, shrink, segments, onPublish), segments);
   }
 
   public static @Nonnull <E> RingBuffer<E> multiProducer(int minSize) {
     if (minSize < 1) throw new IllegalArgumentException();
     minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
-    return new MultiProducerBuffer<>(minSize, null);
+    return new ArrayBuffer<>(Sequencer.multiProducer(minSize, null));
   }
 
   public static @Nonnull <E> RingBuffer<E> multiProducer(int minSize, Allocate<E> allocator) {
     if (minSize < 1) throw new IllegalArgumentException();
     minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
-    return new MultiProducerBuffer<>(minSize, allocator, null);
+    return new ArrayBuffer<>(Sequencer.multiProducer(minSize, null), allocator);
+  }
+
+  public static @Nonnull <E> RingBuffer<E> multiProducer(int minSize, Allocate<E> allocator, Reset<E> reset) {
+    if (minSize < 1) throw new IllegalArgumentException();
+    minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
+    return new ArrayBuffer<>(Sequencer.multiProducer(minSize, null), allocator, reset);
   }
 
   public static @Nonnull <E> RingBuffer<E> multiProducer(int minSize, Runnable onPublish) {
     if (minSize < 1) throw new IllegalArgumentException();
     minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
-    return new MultiProducerBuffer<>(minSize, onPublish);
+    return new ArrayBuffer<>(Sequencer.multiProducer(minSize, onPublish));
   }
 
   public static @Nonnull <E> RingBuffer<E> multiProducer(int minSize, Allocate<E> allocator, Runnable onPublish) {
     if (minSize < 1) throw new IllegalArgumentException();
     minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
-    return new MultiProducerBuffer<>(minSize, allocator, onPublish);
+    return new ArrayBuffer<>(Sequencer.multiProducer(minSize, onPublish), allocator);
   }
 
-  @Contended
-  private static final class SingleProducerBuffer<E> extends RingBuffer<E> {
-    private final @Nonnull E[] entries;
-    private final int mask;
-    private final @Nullable Runnable onPublish;
-    private final @Nonnull AtomicCursor cursor = new AtomicCursor();
-    private final @Nonnull DynamicMembershipCursors gate = new DynamicMembershipCursors();
-    private long next = -1L;
-    private long cachedMin = -1L;
+  public static @Nonnull <E> RingBuffer<E> multiProducer(int minSize, Allocate<E> allocator, Reset<E> reset, Runnable onPublish) {
+    if (minSize < 1) throw new IllegalArgumentException();
+    minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
+    return new ArrayBuffer<>(Sequencer.multiProducer(minSize, onPublish), allocator, reset);
+  }
 
-    @SuppressWarnings("unchecked")
-    SingleProducerBuffer(int size, @Nullable Runnable onPublish) {
-      assert 0 < size && Integer.bitCount(size) == 1;
-      entries = (E[]) new Object[size];
-      mask = entries.length - 1;
-      this.onPublish = onPublish;
+  public static @Nonnull <E> RingBuffer<E> multiProducerBatched(int minSize) {
+    if (minSize < 1) throw new IllegalArgumentException();
+    minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
+    return new ArrayBuffer<>(Sequencer.multiProducerBatched(minSize, null));
+  }
+
+  public static @Nonnull <E> RingBuffer<E> multiProducerBatched(int minSize, Allocate<E> allocator) {
+    if (minSize < 1) throw new IllegalArgumentException();
+    minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
+    return new ArrayBuffer<>(Sequencer.multiProducerBatched(minSize, null), allocator);
+  }
+
+  public static @Nonnull <E> RingBuffer<E> multiProducerBatched(int minSize, Allocate<E> allocator, Reset<E> reset) {
+    if (minSize < 1) throw new IllegalArgumentException();
+    minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
+    return new ArrayBuffer<>(Sequencer.multiProducerBatched(minSize, null), allocator, reset);
+  }
+
+  public static @Nonnull <E> RingBuffer<E> multiProducerBatched(int minSize, Runnable onPublish) {
+    if (minSize < 1) throw new IllegalArgumentException();
+    minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
+    return new ArrayBuffer<>(Sequencer.multiProducerBatched(minSize, onPublish));
+  }
+
+  public static @Nonnull <E> RingBuffer<E> multiProducerBatched(int minSize, Allocate<E> allocator, Runnable onPublish) {
+    if (minSize < 1) throw new IllegalArgumentException();
+    minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
+    return new ArrayBuffer<>(Sequencer.multiProducerBatched(minSize, onPublish), allocator);
+  }
+
+  public static @Nonnull <E> RingBuffer<E> multiProducerBatched(int minSize, Allocate<E> allocator, Reset<E> reset, Runnable onPublish) {
+    if (minSize < 1) throw new IllegalArgumentException();
+    minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
+    return new ArrayBuffer<>(Sequencer.multiProducerBatched(minSize, onPublish), allocator, reset);
+  }
+
+  private static abstract class Sequenced<E> extends RingBuffer<E> implements Subscription.Delivery<Consume<E>>, Subscription.Release {
+    Sequenced(Sequencer sequencer) {
+      super(sequencer);
     }
 
-    @SuppressWarnings("unchecked")
-    SingleProducerBuffer(int size, Allocate<E> allocator, @Nullable Runnable onPublish) {
-      assert 0 < size && Integer.bitCount(size) == 1;
-      entries = (E[]) new Object[size];
-      for (int i = 0; i < entries.length; i++) entries[i] = allocator.allocate();
-      mask = entries.length - 1;
-      this.onPublish = onPublish;
+    @Override
+    public final long tryClaim(int amount) {
+      return sequencer.tryClaim(amount);
     }
 
     @Override
-    public long tryClaim(int amount) {
-      if (amount < 1) throw new IllegalArgumentException();
-      final long wrapsAt = next + amount - entries.length;
-      if (next < cachedMin || cachedMin < wrapsAt) {
-        cursor.writeVolatile(next);
-        final long min = min(next, gate.readVolatile());
-        cachedMin = min;
-        if (wrapsAt > min) return -1L;
-      }
-      return next += amount;
+    public final void publish(long from, long to) {
+      sequencer.publish(from, to);
     }
 
     @Override
-    public E read(long token) {
-      if (token < 0) throw new IllegalArgumentException();
-      return entries[(int)(token & mask)];
+    public final @Nonnull Consumer<E> subscribe(Cursor... after) {
+      return new Consumer<>(Subscription.batching(sequencer, this, after));
     }
 
     @Override
-    public void write(long token, E data) {
-      if (token < 0) throw new IllegalArgumentException();
-      entries[(int)(token & mask)] = data;
+    @SuppressWarnings("unchecked")
+    public final @Nonnull Consumer<E>[] subscribe(int amount, int batch, Cursor... after) {
+      final Subscription<Consume<E>>[] subscriptions = Subscription.parallel(sequencer, this, amount, batch, after);
+      final Consumer<E>[] result = (Consumer<E>[]) new Consumer<?>[amount];
+      for (int i = 0; i < amount; i++) result[i] = new Consumer<>(subscriptions[i]);
+      return result;
     }
 
     @Override
-    public void publish(long from, long to) {
-      if (to < from) throw new IllegalArgumentException();
-      cursor.writeOrdered(to);
-      if (onPublish != null) onPublish.run();
+    public final @Nonnull Consumer<E> subscribeFrom(long sequence, Cursor... after) {
+      final Cursor.Write cursor = sequencer.join(sequence);
+      if (cursor == null) throw new IllegalArgumentException("sequence");
+      return new Consumer<>(Subscription.batching(sequencer, this, cursor, after));
     }
 
-    public final @Nonnull Consumer<E> subscribe(Cursor... after) {
-      final Consumer.BatchingConsumer<E> result = Consumer.batching(this, after);
-      gate.invite(cursor, result.cursor());
-      return result;
+    @Override
+    public final @Nonnull Consumer<E> subscribeResident(Cursor... after) {
+      return new Consumer<>(Subscription.batching(sequencer, this, sequencer.joinResident(), after));
     }
 
     @Override
-    public final @Nonnull Consumer<E>[] subscribe(int amount, Cursor... after) {
-      if (amount < 1) throw new IllegalArgumentException();
-      final Consumer.ParallelConsumer<E>[] result = Consumer.parallel(this, amount, after);
-      gate.invite(cursor, result[0].cursor());
+    public final @Nonnull Consumer<E> subscribeReleasing(Cursor... after) {
+      if (!releasable()) throw new IllegalStateException();
+      sequencer.releasing();
+      return new Consumer<>(Subscription.batching(sequencer, this, this, after));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public final @Nonnull Consumer<E>[] subscribeReleasing(int amount, int batch, Cursor... after) {
+      if (!releasable()) throw new IllegalStateException();
+      sequencer.releasing();
+      final Subscription<Consume<E>>[] subscriptions = Subscription.parallel(sequencer, this, this, amount, batch, after);
+      final Consumer<E>[] result = (Consumer<E>[]) new Consumer<?>[amount];
+      for (int i = 0; i < amount; i++) result[i] = new Consumer<>(subscriptions[i]);
       return result;
     }
 
     @Override
-    public boolean unsubscribe(Consumer<E> consumer) {
-      return gate.expel(consumer.cursor());
+    public final boolean unsubscribe(Consumer<E> consumer) {
+      return sequencer.expel(consumer.cursor());
+    }
+
+    @Override
+    public final void retain(int entries) {
+      sequencer.retain(entries);
+    }
+
+    @Override
+    public final long lastPublished(long from, long to) {
+      return sequencer.lastPublished(from, to);
+    }
+
+    @Override
+    public final @Nonnull Cursor cursor() {
+      return sequencer.cursor;
     }
 
     @Override
-    public long lastPublished(long from, long to) {
-      return to;
+    public final @Nonnull BufferMetrics metrics() {
+      return new BufferMetrics(sequencer);
     }
 
     @Override
-    public @Nonnull Cursor cursor() {
-      return cursor;
+    public final @Nonnull Topology.Builder<E> topology() {
+      return new Topology.Builder<>(sequencer, this);
+    }
+
+    boolean releasable() {
+      return true;
     }
   }
 
   @Contended
-  private static final class MultiProducerBuffer<E> extends RingBuffer<E> {
+  private static final class ArrayBuffer<E> extends Sequenced<E> {
     private final @Nonnull E[] entries;
     private final int mask;
-    private final @Nullable Runnable onPublish;
-    private final @Nonnull AtomicCursor cursor = new AtomicCursor();
-    private final @Nonnull
-    DynamicMembershipCursors gate = new DynamicMembershipCursors();
-    private final @Nonnull AtomicCursor cachedGating = new AtomicCursor();
-    private final @Nonnull AtomicIntegerArray availability;
-    private final int availabilityShift;
+    private final boolean pooled;
+    private final @Nullable Reset<E> reset;
 
     @SuppressWarnings("unchecked")
-    MultiProducerBuffer(int size, @Nullable Runnable onPublish) {
-      assert 0 < size && Integer.bitCount(size) == 1;
-      entries = (E[]) new Object[size];
-      mask = size - 1;
-      this.onPublish = onPublish;
-      availability = new AtomicIntegerArray(size);
-      for (int i = 0; i < size; i++) availability.lazySet(i, -1);
-      availabilityShift = 31 - numberOfLeadingZeros(size);
+    ArrayBuffer(Sequencer sequencer) {
+      super(sequencer);
+      entries = (E[]) new Object[sequencer.size];
+      mask = entries.length - 1;
+      pooled = false;
+      reset = null;
     }
 
-    @SuppressWarnings("unchecked")
-    MultiProducerBuffer(int size, Allocate<E> allocator, @Nullable Runnable onPublish) {
-      assert 0 < size && Integer.bitCount(size) == 1;
-      entries = (E[]) new Object[size];
-      for (int i = 0; i < entries.length; i++) entries[i] = allocator.allocate();
-      mask = size - 1;
-      this.onPublish = onPublish;
-      availability = new AtomicIntegerArray(size);
-      for (int i = 0; i < size; i++) availability.lazySet(i, -1);
-      availabilityShift = 31 - numberOfLeadingZeros(size);
+    ArrayBuffer(Sequencer sequencer, Allocate<E> allocator) {
+      this(sequencer, allocator, null);
     }
 
-    @Override
-    public long tryClaim(int amount) {
-      if (amount < 1) throw new IllegalArgumentException();
-      long cursorValue;
-      long result;
-      do {
-        cursorValue = cursor.readVolatile();
-        result = cursorValue + amount;
-        final long wrapsAt = cursorValue + amount - entries.length;
-        final long cachedGatingValue = cachedGating.readVolatile();
-        if (cursorValue < cachedGatingValue || cachedGatingValue < wrapsAt) {
-          final long min = min(cursorValue, gate.readVolatile());
-          cachedGating.writeOrdered(min);
-          if (min < wrapsAt) return -1L;
-        }
-      } while (!cursor.compareAndSwap(cursorValue, result));
-      return result;
+    @SuppressWarnings("unchecked")
+    ArrayBuffer(Sequencer sequencer, Allocate<E> allocator, @Nullable Reset<E> reset) {
+      super(sequencer);
+      entries = (E[]) new Object[sequencer.size];
+      for (int i = 0; i < entries.length; i++) entries[i] = allocator.allocate();
+      mask = entries.length - 1;
+      pooled = true;
+      this.reset = reset;
     }
 
     @Override
@@ -259,42 +359,114 @@ public abstract class RingBuffer<E> {
     }
 
     @Override
-    public void publish(long from, long to) {
-      if (to < from) throw new IllegalArgumentException();
-      for (long i = from; i <= to; i++) availability.lazySet(((int) i) & mask, (int) (i >>> availabilityShift));
-      if (onPublish != null) onPublish.run();
+    public boolean deliver(Consume<E> with, long token, boolean more) {
+      return with.consume(entries[(int)(token & mask)], more);
     }
 
-    public @Nonnull Consumer<E> subscribe(Cursor... after) {
-      final Consumer.BatchingConsumer<E> result = Consumer.batching(this, after);
-      gate.invite(cursor, result.cursor());
-      return result;
+    @Override
+    public void release(long from, long to) {
+      if (reset != null) {
+        for (long token = from; token <= to; token++) reset.reset(entries[(int)(token & mask)]);
+      } else {
+        for (long token = from; token <= to; token++) entries[(int)(token & mask)] = null;
+      }
     }
 
     @Override
-    public @Nonnull Consumer<E>[] subscribe(int amount, Cursor... after) {
-      if (amount < 1) throw new IllegalArgumentException();
-      final Consumer.ParallelConsumer<E>[] result = Consumer.parallel(this, amount, after);
-      gate.invite(cursor, result[0].cursor());
-      return result;
+    boolean releasable() {
+      return !pooled || reset != null;
+    }
+  }
+
+  @Contended
+  private static final class ElasticBuffer<E> extends Sequenced<E> {
+    private final @Nonnull Segments<E> segments;
+
+    ElasticBuffer(Sequencer sequencer, Segments<E> segments) {
+      super(sequencer);
+      this.segments = segments;
     }
 
     @Override
-    public boolean unsubscribe(Consumer<E> consumer) {
-      return gate.expel(consumer.cursor());
+    public E read(long token) {
+      if (token < 0) throw new IllegalArgumentException();
+      return segments.read(token);
     }
 
     @Override
-    public long lastPublished(long from, long to) {
-      for (long i = from; i <= to; i++) {
-        if (availability.get(((int) i) & mask) != (int) (i >>> availabilityShift)) return i - 1;
-      }
-      return to;
+    public void write(long token, E data) {
+      if (token < 0) throw new IllegalArgumentException();
+      segments.write(token, data);
+    }
+
+    @Override
+    public boolean deliver(Consume<E> with, long token, boolean more) {
+      return with.consume(segments.read(token), more);
+    }
+
+    @Override
+    public void release(long from, long to) {
+      for (long token = from; token <= to; token++) segments.write(token, null);
+    }
+  }
+
+  private static final class Segments<E> implements Sequencer.Resize {
+    private volatile @Nonnull Segment<E> current;
+
+    Segments(int capacity) {
+      current = new Segment<>(0L, capacity, null);
+    }
+
+    E read(long token) {
+      return segment(token).read(token);
+    }
+
+    void write(long token, E data) {
+      segment(token).write(token, data);
     }
 
     @Override
-    public @Nonnull Cursor cursor() {
-      return cursor;
+    public void resize(long start, int capacity) {
+      current = new Segment<>(start, capacity, current);
+    }
+
+    @Override
+    public void release(long before) {
+      Segment<E> segment = current;
+      while (segment != null && segment.start > before) segment = segment.previous;
+      if (segment != null) segment.previous = null;
+    }
+
+    private @Nonnull Segment<E> segment(long token) {
+      Segment<E> result = current;
+      while (token < result.start) {
+        result = result.previous;
+        if (result == null) throw new IllegalArgumentException();
+      }
+      return result;
+    }
+  }
+
+  private static final class Segment<E> {
+    final long start;
+    private final @Nonnull E[] entries;
+    private final int mask;
+    volatile Segment<E> previous;
+
+    @SuppressWarnings("unchecked")
+    Segment(long start, int capacity, Segment<E> previous) {
+      this.start = start;
+      this.previous = previous;
+      entries = (E[]) new Object[capacity];
+      mask = capacity - 1;
+    }
+
+    E read(long token) {
+      return entries[(int)(token & mask)];
+    }
+
+    void write(long token, E data) {
+      entries[(int)(token & mask)] = data;
     }
   }
 
@@ -0,0 +1,379 @@
+package io.github.kurobako.agave.ringbuffer;
+
+import sun.misc.Contended;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntToLongFunction;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+abstract class Sequencer {
+  static final @Nonnull WaitStrategy PARK = WaitStrategy.backOff(0, 0, 1L, 1L, TimeUnit.NANOSECONDS);
+  static final long MIN_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+  static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  final int size;
+  final @Nullable Runnable onPublish;
+  final @Nonnull Cursor.Atomic cursor;
+  final @Nonnull Cursor.Membership gate;
+  final @Nonnull LongAdder failedClaims = new LongAdder();
+  private volatile int retained;
+  private boolean releasing;
+
+  private Sequencer(int size, Cursor.Atomic cursor, Cursor.Membership gate, @Nullable Runnable onPublish) {
+    assert 0 < size && Integer.bitCount(size) == 1;
+    this.size = size;
+    this.cursor = cursor;
+    this.gate = gate;
+    this.onPublish = onPublish;
+  }
+
+  abstract long tryClaim(int amount);
+
+  final long claim(int amount, WaitStrategy strategy) {
+    if (amount < 1) throw new IllegalArgumentException();
+    long result = tryClaim(amount);
+    int attempt = 0;
+    while (result == -1L) {
+      strategy.await(strategy.ticket(), attempt);
+      if (attempt < Integer.MAX_VALUE) attempt++;
+      result = tryClaim(amount);
+    }
+    return result;
+  }
+
+  final long claim(int amount, long timeoutNanos, WaitStrategy strategy) {
+    if (amount < 1) throw new IllegalArgumentException();
+    if (timeoutNanos < 0) throw new IllegalArgumentException();
+    final long started = System.nanoTime();
+    long result = tryClaim(amount);
+    int attempt = 0;
+    while (result == -1L) {
+      if (System.nanoTime() - started >= timeoutNanos) return -1L;
+      strategy.await(strategy.ticket(), attempt);
+      if (attempt < Integer.MAX_VALUE) attempt++;
+      result = tryClaim(amount);
+    }
+    return result;
+  }
+
+  abstract void publish(long from, long to);
+
+  abstract long lastPublished(long from, long to);
+
+  int capacity() {
+    return size;
+  }
+
+  final @Nonnull Cursor.Write join() {
+    return gate.join(cursor);
+  }
+
+  final @Nullable Cursor.Write join(long from) {
+    if (from < 0) throw new IllegalArgumentException();
+    final AtomicCursor resetTo = new AtomicCursor();
+    resetTo.writeOrdered(from - 1);
+    final Cursor.Write result = gate.join(resetTo);
+    if (from - 1 < cursor.readVolatile() - retained) {
+      gate.expel(result);
+      return null;
+    }
+    return result;
+  }
+
+  final @Nonnull Cursor.Write joinResident() {
+    final int retained = this.retained;
+    for (int slack = 0; slack < retained; slack = (slack << 1) + 1) {
+      final Cursor.Write result = join(max(0L, cursor.readVolatile() - retained + 1 + slack));
+      if (result != null) return result;
+    }
+    return join();
+  }
+
+  final synchronized void retain(int entries) {
+    if (entries < 1 || entries >= capacity()) throw new IllegalArgumentException();
+    if (retained != 0 || releasing || !retainable() || claimed() != -1L) throw new IllegalStateException();
+    retained = entries;
+  }
+
+  final synchronized void releasing() {
+    if (retained != 0) throw new IllegalStateException();
+    releasing = true;
+  }
+
+  long claimed() {
+    return cursor.readVolatile();
+  }
+
+  boolean retainable() {
+    return true;
+  }
+
+  final long gated(long cursorValue) {
+    return min(cursorValue, gate.readVolatile()) - retained;
+  }
+
+  final @Nonnull Cursor.Atomic reserve() {
+    return gate.reserve();
+  }
+
+  final void invite(Cursor.Write... members) {
+    gate.invite(cursor, members);
+  }
+
+  final boolean expel(Cursor member) {
+    return gate.expel(member);
+  }
+
+  static @Nonnull CompletionStage<Long> claimAsync(IntToLongFunction tryClaim, int amount, ScheduledExecutorService executor) {
+    if (amount < 1) throw new IllegalArgumentException();
+    //noinspection ConstantConditions
+    if (executor == null) throw new NullPointerException("executor");
+    final CompletableFuture<Long> result = new CompletableFuture<>();
+    executor.execute(new Runnable() {
+      private long backoff = MIN_BACKOFF_NANOS;
+
+      @Override
+      public void run() {
+        if (result.isDone()) return;
+        try {
+          final long token = tryClaim.applyAsLong(amount);
+          if (token != -1L) {
+            result.complete(token);
+            return;
+          }
+          executor.schedule(this, backoff, TimeUnit.NANOSECONDS);
+          backoff = min(backoff << 1, MAX_BACKOFF_NANOS);
+        } catch (RuntimeException e) {
+          result.completeExceptionally(e);
+        }
+      }
+    });
+    return result;
+  }
+
+  static @Nonnull Sequencer singleProducer(int size, @Nullable Runnable onPublish) {
+    return new SingleProducer(size, new AtomicCursor(), new DynamicMembershipCursors(), onPublish);
+  }
+
+  static @Nonnull Sequencer singleProducer(int size, Cursor.Atomic cursor, Cursor.Membership gate, @Nullable Runnable onPublish) {
+    return new SingleProducer(size, cursor, gate, onPublish);
+  }
+
+  static @Nonnull Sequencer singleProducerElastic(int minSize, int maxSize, boolean shrink, Resize segments, @Nullable Runnable onPublish) {
+    return new Elastic(minSize, maxSize, shrink, segments, onPublish);
+  }
+
+  static @Nonnull Sequencer multiProducer(int size, @Nullable Runnable onPublish) {
+    return new MultiProducer(size, new AtomicCursor(), new DynamicMembershipCursors(), Availability.perSlot(size), onPublish);
+  }
+
+  static @Nonnull Sequencer multiProducerBatched(int size, @Nullable Runnable onPublish) {
+    return new MultiProducer(size, new AtomicCursor(), new DynamicMembershipCursors(), Availability.bitset(size), onPublish);
+  }
+
+  static @Nonnull Sequencer multiProducer(int size, Cursor.Atomic cursor, Cursor.Membership gate, Availability availability, @Nullable Runnable onPublish) {
+    return new MultiProducer(size, cursor, gate, availability, onPublish);
+  }
+
+  @Contended
+  private static final class SingleProducer extends Sequencer {
+    private long next;
+    private long cachedMin = -1L;
+
+    SingleProducer(int size, Cursor.Atomic cursor, Cursor.Membership gate, @Nullable Runnable onPublish) {
+      super(size, cursor, gate, onPublish);
+      next = cursor.readVolatile();
+    }
+
+    @Override
+    long tryClaim(int amount) {
+      if (amount < 1) throw new IllegalArgumentException();
+      final long wrapsAt = next + amount - size;
+      if (next < cachedMin || cachedMin < wrapsAt) {
+        cursor.writeVolatile(next);
+        final long min = gated(next);
+        cachedMin = min;
+        if (wrapsAt > min) {
+          failedClaims.increment();
+          return -1L;
+        }
+      }
+      return next += amount;
+    }
+
+    @Override
+    void publish(long from, long to) {
+      if (to < from) throw new IllegalArgumentException();
+      cursor.writeOrdered(to);
+      if (onPublish != null) onPublish.run();
+    }
+
+    @Override
+    long lastPublished(long from, long to) {
+      return to;
+    }
+
+    @Override
+    long claimed() {
+      return next;
+    }
+  }
+
+  interface Resize {
+
+    void resize(long start, int capacity);
+
+    void release(long before);
+
+  }
+
+  @Contended
+  private static final class Elastic extends Sequencer {
+    private static final int GROW_AFTER = 16;
+    private static final int SHRINK_AFTER = 16;
+
+    private final @Nonnull Resize segments;
+    private final int minSize;
+    private final boolean shrink;
+    private volatile int capacity;
+    private long start;
+    private long next;
+    private long cachedMin = -1L;
+    private int failures;
+    private int claims;
+    private int underfilled;
+
+    Elastic(int minSize, int maxSize, boolean shrink, Resize segments, @Nullable Runnable onPublish) {
+      super(maxSize, new AtomicCursor(), new DynamicMembershipCursors(), onPublish);
+      assert 0 < minSize && Integer.bitCount(minSize) == 1 && minSize <= maxSize;
+      this.segments = segments;
+      this.minSize = minSize;
+      this.shrink = shrink;
+      capacity = minSize;
+      next = cursor.readVolatile();
+      start = next + 1;
+    }
+
+    @Override
+    long tryClaim(int amount) {
+      if (amount < 1) throw new IllegalArgumentException();
+      if (shrink && ++claims >= capacity) {
+        claims = 0;
+        if (next - min(next, gate.readVolatile()) < capacity >> 2) {
+          if (++underfilled >= SHRINK_AFTER && capacity > minSize) resize(capacity >> 1);
+        } else {
+          underfilled = 0;
+        }
+      }
+      while (true) {
+        final long wrapsAt = next + amount - capacity;
+        if (wrapsAt >= start && (next < cachedMin || cachedMin < wrapsAt)) {
+          cursor.writeVolatile(next);
+          final long min = gated(next);
+          cachedMin = min;
+          if (min >= start - 1) segments.release(start);
+          if (wrapsAt > min) {
+            if (++failures < GROW_AFTER || capacity == size) {
+              failedClaims.increment();
+              return -1L;
+            }
+            resize(capacity << 1);
+            continue;
+          }
+        }
+        failures = 0;
+        return next += amount;
+      }
+    }
+
+    @Override
+    void publish(long from, long to) {
+      if (to < from) throw new IllegalArgumentException();
+      cursor.writeOrdered(to);
+      if (onPublish != null) onPublish.run();
+    }
+
+    @Override
+    long lastPublished(long from, long to) {
+      return to;
+    }
+
+    @Override
+    int capacity() {
+      return capacity;
+    }
+
+    @Override
+    long claimed() {
+      return next;
+    }
+
+    @Override
+    boolean retainable() {
+      return false;
+    }
+
+    private void resize(int capacity) {
+      start = next + 1;
+      failures = 0;
+      claims = 0;
+      underfilled = 0;
+      segments.resize(start, capacity);
+      this.capacity = capacity;
+    }
+  }
+
+  @Contended
+  private static final class MultiProducer extends Sequencer {
+    private final @Nonnull AtomicCursor cachedGating = new AtomicCursor();
+    private final @Nonnull Availability availability;
+
+    MultiProducer(int size, Cursor.Atomic cursor, Cursor.Membership gate, Availability availability, @Nullable Runnable onPublish) {
+      super(size, cursor, gate, onPublish);
+      this.availability = availability;
+    }
+
+    @Override
+    long tryClaim(int amount) {
+      if (amount < 1) throw new IllegalArgumentException();
+      long cursorValue;
+      long result;
+      do {
+        cursorValue = cursor.readVolatile();
+        result = cursorValue + amount;
+        final long wrapsAt = cursorValue + amount - size;
+        final long cachedGatingValue = cachedGating.readVolatile();
+        if (cursorValue < cachedGatingValue || cachedGatingValue < wrapsAt) {
+          final long min = gated(cursorValue);
+          cachedGating.writeOrdered(min);
+          if (min < wrapsAt) {
+            failedClaims.increment();
+            return -1L;
+          }
+        }
+      } while (!cursor.compareAndSwap(cursorValue, result));
+      return result;
+    }
+
+    @Override
+    void publish(long from, long to) {
+      if (to < from) throw new IllegalArgumentException();
+      availability.publish(from, to);
+      if (onPublish != null) onPublish.run();
+    }
+
+    @Override
+    long lastPublished(long from, long to) {
+      return availability.lastPublished(from, to);
+    }
+  }
+
+}
@@ -0,0 +1,154 @@
+package io.github.kurobako.agave.ringbuffer;
+
+import sun.misc.Contended;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Math.pow;
+
+@Contended
+public final class ShardedRingBuffer<E> {
+  private static final int SHARD_SHIFT = 56;
+  private static final long SEQUENCE_MASK = (1L << SHARD_SHIFT) - 1;
+  private static final int MAX_SHARDS = 1 << (63 - SHARD_SHIFT);
+
+  private final @Nonnull Sequencer[] sequencers;
+  private final @Nonnull Object[][] entries;
+  private final @Nonnull Subscription.Delivery<Consume<E>>[] deliveries;
+  private final int mask;
+  private final int shardMask;
+
+  @SuppressWarnings("unchecked")
+  private ShardedRingBuffer(int shards, int size, @Nullable Allocate<E> allocator, @Nullable Runnable onPublish) {
+    sequencers = new Sequencer[shards];
+    entries = new Object[shards][size];
+    deliveries = (Subscription.Delivery<Consume<E>>[]) new Subscription.Delivery<?>[shards];
+    mask = size - 1;
+    shardMask = shards - 1;
+    for (int i = 0; i < shards; i++) {
+      sequencers[i] = Sequencer.multiProducer(size, onPublish);
+      final Object[] shard = entries[i];
+      if (allocator != null) {
+        for (int j = 0; j < size; j++) shard[j] = allocator.allocate();
+      }
+      deliveries[i] = (with, token, more) -> with.consume((E) shard[(int)(token & mask)], more);
+    }
+  }
+
+  public long tryClaim() {
+    return tryClaim(1);
+  }
+
+  public long tryClaim(int amount) {
+    final int shard = shard();
+    final long result = sequencers[shard].tryClaim(amount);
+    return result == -1L ? -1L : token(shard, result);
+  }
+
+  public long claim() {
+    return claim(1, Sequencer.PARK);
+  }
+
+  public long claim(int amount) {
+    return claim(amount, Sequencer.PARK);
+  }
+
+  public long claim(WaitStrategy strategy) {
+    return claim(1, strategy);
+  }
+
+  public long claim(int amount, WaitStrategy strategy) {
+    final int shard = shard();
+    return token(shard, sequencers[shard].claim(amount, strategy));
+  }
+
+  public long claim(int amount, long timeout, TimeUnit unit) {
+    final int shard = shard();
+    final long result = sequencers[shard].claim(amount, unit.toNanos(timeout), Sequencer.PARK);
+    return result == -1L ? -1L : token(shard, result);
+  }
+
+  @SuppressWarnings("unchecked")
+  public E read(long token) {
+    if (token < 0) throw new IllegalArgumentException();
+    return (E) entries[(int)(token >>> SHARD_SHIFT)][(int)(token & mask)];
+  }
+
+  public void write(long token, E data) {
+    if (token < 0) throw new IllegalArgumentException();
+    entries[(int)(token >>> SHARD_SHIFT)][(int)(token & mask)] = data;
+  }
+
+  public void publish(long token) {
+    publish(token, token);
+  }
+
+  public void publish(long from, long to) {
+    if (from < 0) throw new IllegalArgumentException();
+    final int shard = (int)(from >>> SHARD_SHIFT);
+    if (shard != (int)(to >>> SHARD_SHIFT)) throw new IllegalArgumentException();
+    sequencers[shard].publish(from & SEQUENCE_MASK, to & SEQUENCE_MASK);
+  }
+
+  @SuppressWarnings("unchecked")
+  public @Nonnull Consumer<E> subscribe() {
+    final Subscription<Consume<E>>[] parts = (Subscription<Consume<E>>[]) new Subscription<?>[sequencers.length];
+    for (int i = 0; i < parts.length; i++) parts[i] = Subscription.batching(sequencers[i], deliveries[i]);
+    return new Consumer<>(Subscription.merging(parts));
+  }
+
+  public boolean unsubscribe(Consumer<E> consumer) {
+    final Cursor cursor = consumer.cursor();
+    if (!(cursor instanceof Subscription.MergedCursor)) return false;
+    final Cursor[] parts = ((Subscription.MergedCursor) cursor).parts;
+    if (parts.length != sequencers.length) return false;
+    boolean result = false;
+    for (int i = 0; i < parts.length; i++) {
+      if (sequencers[i].expel(parts[i])) result = true;
+    }
+    return result;
+  }
+
+  public int shards() {
+    return sequencers.length;
+  }
+
+  public @Nonnull BufferMetrics metrics(int shard) {
+    return new BufferMetrics(sequencers[shard]);
+  }
+
+  private int shard() {
+    return (int) Thread.currentThread().getId() & shardMask;
+  }
+
+  private static long token(int shard, long sequence) {
+    return ((long) shard << SHARD_SHIFT) | sequence;
+  }
+
+  public static @Nonnull <E> ShardedRingBuffer<E> multiProducer(int shards, int minSize) {
+    return create(shards, minSize, null, null);
+  }
+
+  public static @Nonnull <E> ShardedRingBuffer<E> multiProducer(int shards, int minSize, Allocate<E> allocator) {
+    return create(shards, minSize, allocator, null);
+  }
+
+  public static @Nonnull <E> ShardedRingBuffer<E> multiProducer(int shards, int minSize, Runnable onPublish) {
+    return create(shards, minSize, null, onPublish);
+  }
+
+  public static @Nonnull <E> ShardedRingBuffer<E> multiProducer(int shards, int minSize, Allocate<E> allocator, Runnable onPublish) {
+    return create(shards, minSize, allocator, onPublish);
+  }
+
+  private static @Nonnull <E> ShardedRingBuffer<E> create(int shards, int minSize, @Nullable Allocate<E> allocator, @Nullable Runnable onPublish) {
+    if (shards < 1 || shards > MAX_SHARDS) throw new IllegalArgumentException();
+    if (minSize < 1) throw new IllegalArgumentException();
+    shards = (int) pow(2, 32 - Integer.numberOfLeadingZeros(shards - 1));
+    minSize = (int) pow(2, 32 - Integer.numberOfLeadingZeros(minSize - 1));
+    return new ShardedRingBuffer<>(shards, minSize, allocator, onPublish);
+  }
+
+}
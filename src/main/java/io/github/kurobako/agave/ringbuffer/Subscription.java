@@ -0,0 +1,311 @@
+package io.github.kurobako.agave.ringbuffer;
+
+import io.github.kurobako.agave.ringbuffer.Consumer.State;
+import sun.misc.Contended;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import static java.lang.Long.numberOfLeadingZeros;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+abstract class Subscription<C> {
+  @SuppressWarnings("unchecked")
+  private static final @Nonnull AtomicLongFieldUpdater<Subscription<?>> GATING_UPDATER = (AtomicLongFieldUpdater<Subscription<?>>) (AtomicLongFieldUpdater<?>) AtomicLongFieldUpdater.newUpdater(Subscription.class, "gating");
+  static final int BATCH_BUCKETS = 32;
+
+  final @Nonnull Sequencer sequencer;
+  private final @Nonnull AtomicLongArray batches = new AtomicLongArray(BATCH_BUCKETS);
+  private volatile long gating;
+
+  private Subscription(Sequencer sequencer) {
+    this.sequencer = sequencer;
+  }
+
+  abstract @Nonnull State consume(C with);
+
+  abstract @Nonnull Cursor cursor();
+
+  final @Nonnull ConsumerMetrics metrics() {
+    return new ConsumerMetrics(this);
+  }
+
+  long lag() {
+    return max(0L, sequencer.cursor.readVolatile() - cursor().readVolatile());
+  }
+
+  long gatingCount() {
+    return gating;
+  }
+
+  long batchCount(int bucket) {
+    return batches.get(bucket);
+  }
+
+  final @Nonnull State record(State result) {
+    if (result == State.GATING) GATING_UPDATER.lazySet(this, gating + 1);
+    return result;
+  }
+
+  final void recordBatch(long size) {
+    if (size < 1) return;
+    final int bucket = min(63 - numberOfLeadingZeros(size), BATCH_BUCKETS - 1);
+    batches.lazySet(bucket, batches.get(bucket) + 1);
+  }
+
+  final @Nonnull State await(C with, WaitStrategy strategy) {
+    int attempt = 0;
+    while (true) {
+      final long ticket = strategy.ticket();
+      final State result = consume(with);
+      if (result == State.WORKING || Thread.currentThread().isInterrupted()) return result;
+      strategy.await(ticket, attempt);
+      if (attempt < Integer.MAX_VALUE) attempt++;
+    }
+  }
+
+  @FunctionalInterface
+  interface Delivery<C> {
+
+    boolean deliver(C with, long token, boolean more);
+
+  }
+
+  @FunctionalInterface
+  interface Release {
+
+    void release(long from, long to);
+
+  }
+
+  static @Nonnull <C> Subscription<C> batching(Sequencer sequencer, Delivery<C> delivery, Cursor... gate) {
+    return new Batching<>(sequencer, delivery, null, sequencer.join(), gate);
+  }
+
+  static @Nonnull <C> Subscription<C> batching(Sequencer sequencer, Delivery<C> delivery, Release release, Cursor... gate) {
+    return new Batching<>(sequencer, delivery, release, sequencer.join(), gate);
+  }
+
+  static @Nonnull <C> Subscription<C> batching(Sequencer sequencer, Delivery<C> delivery, Cursor.Write cursor, Cursor... gate) {
+    return new Batching<>(sequencer, delivery, null, cursor, gate);
+  }
+
+  static @Nonnull <C> Subscription<C>[] parallel(Sequencer sequencer, Delivery<C> delivery, int amount, int batch, Cursor... gate) {
+    final ParallelCursors groupCursor = new ParallelCursors(sequencer.size, sequencer.reserve());
+    final Subscription<C>[] result = parallel(sequencer, delivery, null, groupCursor, amount, batch, gate);
+    sequencer.invite(groupCursor);
+    return result;
+  }
+
+  static @Nonnull <C> Subscription<C>[] parallel(Sequencer sequencer, Delivery<C> delivery, Release release, int amount, int batch, Cursor... gate) {
+    final ParallelCursors groupCursor = new ParallelCursors(sequencer.size, sequencer.reserve());
+    final Subscription<C>[] result = parallel(sequencer, delivery, release, groupCursor, amount, batch, gate);
+    sequencer.invite(groupCursor);
+    return result;
+  }
+
+  static @Nonnull <C> Subscription<C>[] parallel(Sequencer sequencer, Delivery<C> delivery, ParallelCursors groupCursor, int amount, int batch, Cursor... gate) {
+    return parallel(sequencer, delivery, null, groupCursor, amount, batch, gate);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static @Nonnull <C> Subscription<C>[] parallel(Sequencer sequencer, Delivery<C> delivery, @Nullable Release release, ParallelCursors groupCursor, int amount, int batch, Cursor... gate) {
+    if (amount < 1) throw new IllegalArgumentException();
+    if (batch < 1) throw new IllegalArgumentException();
+    final Parallel<C>[] result = (Parallel<C>[]) new Parallel<?>[amount];
+    for (int i = 0; i < amount; i++) result[i] = new Parallel<>(sequencer, delivery, release, groupCursor, batch, gate);
+    return result;
+  }
+
+  static @Nonnull <C> Subscription<C> merging(Subscription<C>[] parts) {
+    if (parts.length < 1) throw new IllegalArgumentException();
+    return new Merging<>(parts);
+  }
+
+  private static @Nonnull Cursor gate(Sequencer sequencer, Cursor... gate) {
+    return (gate.length == 0) ? sequencer.cursor : new ConstantMembershipCursors(sequencer.cursor, gate);
+  }
+
+  @Contended
+  private static final class Batching<C> extends Subscription<C> {
+    private final @Nonnull Delivery<C> delivery;
+    private final @Nullable Release release;
+    private final @Nonnull Cursor gate;
+    private final @Nonnull Cursor.Write cursor;
+
+    private Batching(Sequencer sequencer, Delivery<C> delivery, @Nullable Release release, Cursor.Write cursor, Cursor... gate) {
+      super(sequencer);
+      this.delivery = delivery;
+      this.release = release;
+      this.cursor = cursor;
+      this.gate = gate(sequencer, gate);
+    }
+
+    @Override
+    @Nonnull State consume(C with) {
+      final long current = cursor.readVolatile();
+      long next = current + 1;
+      final long lastPublished = sequencer.lastPublished(next, gate.readVolatile());
+      if (next <= lastPublished) {
+        long consumed = current;
+        try {
+          boolean shouldContinue;
+          do {
+            shouldContinue = delivery.deliver(with, next, next != lastPublished);
+            consumed = next;
+            next++;
+          } while (shouldContinue && next <= lastPublished);
+        } finally {
+          if (release != null && consumed > current) release.release(current + 1, consumed);
+          cursor.writeOrdered(consumed);
+          recordBatch(consumed - current);
+        }
+        return State.WORKING;
+      }
+      return record(next <= sequencer.cursor.readVolatile() ? State.GATING : State.IDLE);
+    }
+
+    @Override
+    @Nonnull Cursor.Write cursor() {
+      return cursor;
+    }
+  }
+
+  @Contended
+  private static final class Parallel<C> extends Subscription<C> {
+    private final @Nonnull Delivery<C> delivery;
+    private final @Nullable Release release;
+    private final @Nonnull Cursor gate;
+    private final @Nonnull ParallelCursors groupCursor;
+    private final int batch;
+
+    private Parallel(Sequencer sequencer, Delivery<C> delivery, @Nullable Release release, ParallelCursors groupCursor, int batch, Cursor... gate) {
+      super(sequencer);
+      this.delivery = delivery;
+      this.release = release;
+      this.gate = gate(sequencer, gate);
+      this.groupCursor = groupCursor;
+      this.batch = batch;
+    }
+
+    @Override
+    @Nonnull State consume(C with) {
+      final AtomicCursor claimed = groupCursor.claimed;
+      boolean worked = false;
+      boolean shouldContinue;
+      long current;
+      long next;
+      long lastPublished;
+      do {
+        final ParallelCursors.Run returned = groupCursor.poll();
+        if (returned != null) {
+          current = returned.from - 1;
+          lastPublished = returned.to;
+        } else {
+          do {
+            current = claimed.readVolatile();
+            next = current + 1;
+            lastPublished = sequencer.lastPublished(next, min(gate.readVolatile(), current + batch));
+            if (lastPublished < next) return worked ? State.WORKING : record(next < sequencer.cursor.readVolatile() ? State.GATING : State.IDLE);
+          } while (!claimed.compareAndSwap(current, lastPublished));
+        }
+        worked = true;
+        shouldContinue = true;
+        long delivered = current;
+        try {
+          for (next = current + 1; next <= lastPublished; next++) {
+            if (!delivery.deliver(with, next, next != lastPublished)) shouldContinue = false;
+            delivered = next;
+          }
+        } finally {
+          if (delivered < lastPublished) groupCursor.offer(delivered + 1, lastPublished);
+          if (delivered > current) {
+            if (release != null) release.release(current + 1, delivered);
+            groupCursor.complete(current + 1, delivered);
+          }
+          recordBatch(delivered - current);
+        }
+      } while (shouldContinue);
+      return State.WORKING;
+    }
+
+    @Override
+    @Nonnull Cursor.Write cursor() {
+      return groupCursor;
+    }
+  }
+
+
+  @Contended
+  private static final class Merging<C> extends Subscription<C> {
+    private final @Nonnull Subscription<C>[] parts;
+    private final @Nonnull MergedCursor cursor;
+    private int first;
+
+    private Merging(Subscription<C>[] parts) {
+      super(parts[0].sequencer);
+      this.parts = parts;
+      final Cursor[] cursors = new Cursor[parts.length];
+      for (int i = 0; i < parts.length; i++) cursors[i] = parts[i].cursor();
+      cursor = new MergedCursor(cursors);
+    }
+
+    @Override
+    @Nonnull State consume(C with) {
+      State result = State.IDLE;
+      final int start = first;
+      first = start + 1 == parts.length ? 0 : start + 1;
+      for (int i = start, visited = 0; visited < parts.length; visited++, i = i + 1 == parts.length ? 0 : i + 1) {
+        final State state = parts[i].consume(with);
+        if (state == State.WORKING) result = State.WORKING;
+        else if (state == State.GATING && result == State.IDLE) result = State.GATING;
+      }
+      return result;
+    }
+
+    @Override
+    @Nonnull Cursor cursor() {
+      return cursor;
+    }
+
+    @Override
+    long lag() {
+      long result = 0L;
+      for (Subscription<C> part : parts) result += part.lag();
+      return result;
+    }
+
+    @Override
+    long gatingCount() {
+      long result = 0L;
+      for (Subscription<C> part : parts) result += part.gatingCount();
+      return result;
+    }
+
+    @Override
+    long batchCount(int bucket) {
+      long result = 0L;
+      for (Subscription<C> part : parts) result += part.batchCount(bucket);
+      return result;
+    }
+  }
+
+  static final class MergedCursor extends Cursor {
+    final @Nonnull Cursor[] parts;
+
+    private MergedCursor(Cursor[] parts) {
+      this.parts = parts;
+    }
+
+    @Override
+    public long readVolatile() {
+      long result = -1L;
+      for (Cursor part : parts) result += part.readVolatile() + 1;
+      return result;
+    }
+  }
+
+}
@@ -0,0 +1,143 @@
+package io.github.kurobako.agave.ringbuffer;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+public final class Topology<E> {
+  private final @Nonnull Map<String, List<Consumer<E>>> consumers;
+  private final @Nonnull Map<String, List<Supplier<Consumer.State>>> steps;
+
+  private Topology(Map<String, List<Consumer<E>>> consumers, Map<String, List<Supplier<Consumer.State>>> steps) {
+    this.consumers = consumers;
+    this.steps = steps;
+  }
+
+  public @Nonnull Map<String, List<Consumer<E>>> consumers() {
+    return consumers;
+  }
+
+  public @Nonnull Map<String, List<Supplier<Consumer.State>>> steps() {
+    return steps;
+  }
+
+  public @Nonnull Processor start(WaitStrategy idle) {
+    return Processor.start(steps, idle);
+  }
+
+  public @Nonnull Processor start(WaitStrategy idle, ThreadFactory threadFactory) {
+    return Processor.start(steps, idle, threadFactory);
+  }
+
+  public static final class Stage {
+    private final @Nonnull Builder<?> builder;
+    private final @Nonnull String name;
+    private final boolean parallel;
+    private final int amount;
+    private final int batch;
+    private final @Nonnull Stage[] after;
+    private boolean terminal = true;
+    private Cursor.Write cursor;
+
+    private Stage(Builder<?> builder, String name, boolean parallel, int amount, int batch, Stage[] after) {
+      this.builder = builder;
+      this.name = name;
+      this.parallel = parallel;
+      this.amount = amount;
+      this.batch = batch;
+      this.after = after;
+    }
+
+    public @Nonnull String name() {
+      return name;
+    }
+  }
+
+  public static final class Builder<E> {
+    private final @Nonnull Sequencer sequencer;
+    private final @Nonnull Subscription.Delivery<Consume<E>> delivery;
+    private final @Nonnull List<Stage> stages = new ArrayList<>();
+    private final @Nonnull List<Consume<E>> handlers = new ArrayList<>();
+    private boolean built;
+
+    Builder(Sequencer sequencer, Subscription.Delivery<Consume<E>> delivery) {
+      this.sequencer = sequencer;
+      this.delivery = delivery;
+    }
+
+    public @Nonnull Stage stage(String name, Consume<E> handler, Stage... after) {
+      return stage(name, false, 1, 1, handler, after);
+    }
+
+    public @Nonnull Stage stage(String name, int amount, int batch, Consume<E> handler, Stage... after) {
+      if (amount < 1) throw new IllegalArgumentException("amount");
+      if (batch < 1) throw new IllegalArgumentException("batch");
+      return stage(name, true, amount, batch, handler, after);
+    }
+
+    private @Nonnull Stage stage(String name, boolean parallel, int amount, int batch, Consume<E> handler, Stage... after) {
+      //noinspection ConstantConditions
+      if (name == null) throw new NullPointerException("name");
+      //noinspection ConstantConditions
+      if (handler == null) throw new NullPointerException("handler");
+      if (built) throw new IllegalStateException();
+      for (Stage stage : stages) {
+        if (stage.name.equals(name)) throw new IllegalArgumentException(name);
+      }
+      for (Stage stage : after) {
+        if (stage.builder != this) throw new IllegalArgumentException(stage.name);
+      }
+      final Stage result = new Stage(this, name, parallel, amount, batch, after.clone());
+      stages.add(result);
+      handlers.add(handler);
+      return result;
+    }
+
+    public @Nonnull Topology<E> build() {
+      if (built) throw new IllegalStateException();
+      if (stages.isEmpty()) throw new IllegalStateException();
+      built = true;
+      final List<Cursor.Write> terminals = new ArrayList<>();
+      for (Stage stage : stages) {
+        for (Stage upstream : stage.after) upstream.terminal = false;
+      }
+      for (Stage stage : stages) {
+        final Cursor.Atomic cursor = stage.terminal ? sequencer.reserve() : new AtomicCursor();
+        stage.cursor = stage.parallel ? new ParallelCursors(sequencer.size, cursor) : cursor;
+      }
+      final Map<String, List<Consumer<E>>> consumers = new LinkedHashMap<>();
+      final Map<String, List<Supplier<Consumer.State>>> steps = new LinkedHashMap<>();
+      for (int i = 0; i < stages.size(); i++) {
+        final Stage stage = stages.get(i);
+        final Consume<E> handler = handlers.get(i);
+        final Cursor[] gate = new Cursor[stage.after.length];
+        for (int j = 0; j < gate.length; j++) gate[j] = stage.after[j].cursor;
+        final List<Consumer<E>> stageConsumers = new ArrayList<>();
+        if (stage.parallel) {
+          for (Subscription<Consume<E>> subscription : Subscription.parallel(sequencer, delivery, (ParallelCursors) stage.cursor, stage.amount, stage.batch, gate)) {
+            stageConsumers.add(new Consumer<>(subscription));
+          }
+        } else {
+          stageConsumers.add(new Consumer<>(Subscription.batching(sequencer, delivery, stage.cursor, gate)));
+        }
+        final List<Supplier<Consumer.State>> stageSteps = new ArrayList<>();
+        for (Consumer<E> consumer : stageConsumers) stageSteps.add(() -> consumer.consume(handler));
+        consumers.put(stage.name, Collections.unmodifiableList(stageConsumers));
+        steps.put(stage.name, Collections.unmodifiableList(stageSteps));
+        if (stage.terminal) terminals.add(stage.cursor);
+      }
+      sequencer.invite(terminals.toArray(new Cursor.Write[0]));
+      final long start = terminals.get(0).readVolatile();
+      for (Stage stage : stages) {
+        if (!stage.terminal) stage.cursor.writeOrdered(start);
+      }
+      return new Topology<>(Collections.unmodifiableMap(consumers), Collections.unmodifiableMap(steps));
+    }
+  }
+
+}
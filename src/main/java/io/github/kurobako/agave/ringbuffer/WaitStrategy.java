@@ -0,0 +1,146 @@
+package io.github.kurobako.agave.ringbuffer;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.lang.Math.min;
+
+public abstract class WaitStrategy {
+  private WaitStrategy() {}
+
+  long ticket() {
+    return 0L;
+  }
+
+  abstract void await(long ticket, int attempt);
+
+  public void signal() {}
+
+  public static @Nonnull WaitStrategy busySpin() {
+    return BusySpin.INSTANCE;
+  }
+
+  public static @Nonnull WaitStrategy yielding() {
+    return yielding(100);
+  }
+
+  public static @Nonnull WaitStrategy yielding(int spins) {
+    if (spins < 0) throw new IllegalArgumentException();
+    return new Yielding(spins);
+  }
+
+  public static @Nonnull WaitStrategy backOff() {
+    return backOff(100, 10, 1L, TimeUnit.MILLISECONDS.toNanos(1), TimeUnit.NANOSECONDS);
+  }
+
+  public static @Nonnull WaitStrategy backOff(int spins, int yields, long minPark, long maxPark, TimeUnit unit) {
+    if (spins < 0) throw new IllegalArgumentException();
+    if (yields < 0) throw new IllegalArgumentException();
+    if (minPark < 1 || maxPark < minPark) throw new IllegalArgumentException();
+    return new BackOff(spins, yields, unit.toNanos(minPark), unit.toNanos(maxPark));
+  }
+
+  public static @Nonnull WaitStrategy blocking() {
+    return blocking(1L, TimeUnit.MILLISECONDS);
+  }
+
+  public static @Nonnull WaitStrategy blocking(long maxWait, TimeUnit unit) {
+    if (maxWait < 1) throw new IllegalArgumentException();
+    return new Blocking(unit.toNanos(maxWait));
+  }
+
+  private static final class BusySpin extends WaitStrategy {
+    static final @Nonnull BusySpin INSTANCE = new BusySpin();
+
+    @Override
+    void await(long ticket, int attempt) {}
+  }
+
+  private static final class Yielding extends WaitStrategy {
+    private final int spins;
+
+    Yielding(int spins) {
+      this.spins = spins;
+    }
+
+    @Override
+    void await(long ticket, int attempt) {
+      if (attempt >= spins) Thread.yield();
+    }
+  }
+
+  private static final class BackOff extends WaitStrategy {
+    private final int spins;
+    private final int yields;
+    private final long minParkNanos;
+    private final long maxParkNanos;
+
+    BackOff(int spins, int yields, long minParkNanos, long maxParkNanos) {
+      this.spins = spins;
+      this.yields = yields;
+      this.minParkNanos = minParkNanos;
+      this.maxParkNanos = maxParkNanos;
+    }
+
+    @Override
+    void await(long ticket, int attempt) {
+      if (attempt < spins) return;
+      if (attempt - spins < yields) {
+        Thread.yield();
+        return;
+      }
+      final int doublings = min(attempt - spins - yields, Long.numberOfLeadingZeros(minParkNanos) - 1);
+      LockSupport.parkNanos(min(minParkNanos << doublings, maxParkNanos));
+    }
+  }
+
+  private static final class Blocking extends WaitStrategy {
+    private final @Nonnull AtomicLong signals = new AtomicLong();
+    private final @Nonnull AtomicInteger waiters = new AtomicInteger();
+    private final @Nonnull ReentrantLock lock = new ReentrantLock();
+    private final @Nonnull Condition signalled = lock.newCondition();
+    private final long maxWaitNanos;
+
+    Blocking(long maxWaitNanos) {
+      this.maxWaitNanos = maxWaitNanos;
+    }
+
+    @Override
+    long ticket() {
+      return signals.get();
+    }
+
+    @Override
+    void await(long ticket, int attempt) {
+      waiters.incrementAndGet();
+      lock.lock();
+      try {
+        if (signals.get() == ticket) signalled.awaitNanos(maxWaitNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        lock.unlock();
+        waiters.decrementAndGet();
+      }
+    }
+
+    @Override
+    public void signal() {
+      signals.incrementAndGet();
+      if (waiters.get() > 0) {
+        lock.lock();
+        try {
+          signalled.signalAll();
+        } finally {
+          lock.unlock();
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,181 @@
+package io.github.kurobako.agave;
+
+import io.github.kurobako.agave.ringbuffer.Journal;
+import io.github.kurobako.agave.ringbuffer.Processor;
+import io.github.kurobako.agave.ringbuffer.WaitStrategy;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.github.kurobako.agave.PipeTest.SUM;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+public class CheckpointTest {
+  private static final Checkpoint.Encode LONGS = (id, state, target) -> target.putLong((Long) state);
+
+  @Test
+  public void testCheckpoint() throws Exception {
+    final int LIMIT = 10000;
+    final Path directory = Files.createTempDirectory("agave");
+    try {
+      final Path journaled = directory.resolve("journal");
+      final Path checkpoints = directory.resolve("checkpoints");
+      final Pipe.Ref<Integer, Long, Integer> ref = Pipe.compose(Pipe.ref("first", SUM, 64), Pipe.ref("second", SUM, 64));
+      final Processor processor = ref.start(WaitStrategy.backOff());
+      Path written = null;
+      try (Journal<Integer> journal = Journal.open(journaled, 4096, (data, target) -> target.putInt(data), Journal.Sync.none())) {
+        for (int j = 0; j < LIMIT; j++) {
+          if (j == LIMIT / 2) written = ref.checkpoint(checkpoints, journal.appended(), LONGS).toCompletableFuture().get(1, TimeUnit.MINUTES);
+          journal.consume(j, false);
+          ref.push(so -> {}, e -> {}, j);
+        }
+      }
+      processor.drain();
+      assertEquals(true, processor.awaitTermination(1, TimeUnit.MINUTES));
+      final Checkpoint checkpoint = Checkpoint.latest(checkpoints, (id, source) -> source.getLong()).asNullable();
+      assertNotNull(checkpoint);
+      assertEquals(written, checkpoints.resolve(String.format("%020d", LIMIT / 2) + ".checkpoint"));
+      assertEquals(LIMIT / 2, checkpoint.position());
+      final long half = (long) (LIMIT / 2) * (LIMIT / 2 - 1) / 2;
+      assertEquals(half, checkpoint.states().lookupNullable("first"));
+      assertEquals(half, checkpoint.states().lookupNullable("second"));
+      final Pipe.Ref<Integer, Long, Integer> restored = Pipe.compose(Pipe.ref("first", SUM, 64), Pipe.ref("second", SUM, 64));
+      restored.restore(checkpoint);
+      final Processor replaying = restored.start(WaitStrategy.backOff());
+      assertEquals(LIMIT / 2, Journal.replay(journaled, ByteBuffer::getInt, (data, more) -> {
+        restored.push(so -> {}, e -> {}, data);
+        return true;
+      }, checkpoint.position()));
+      replaying.drain();
+      assertEquals(true, replaying.awaitTermination(1, TimeUnit.MINUTES));
+      assertEquals(ref.deref(), restored.deref());
+    } finally {
+      final List<Path> paths = new ArrayList<>();
+      Files.walk(directory).forEach(paths::add);
+      Collections.reverse(paths);
+      for (Path path : paths) Files.delete(path);
+    }
+  }
+
+  @Test
+  public void testPartitioned() throws Exception {
+    final int LIMIT = 10000;
+    final Checkpoint.Encode encoder = (id, state, target) -> {
+      @SuppressWarnings("unchecked")
+      final Dictionary<Integer, Long> dictionary = (Dictionary<Integer, Long>) state;
+      target.putInt(dictionary.size());
+      for (Pair<Integer, Long> entry : dictionary) {
+        target.putInt(entry.first());
+        target.putLong(entry.second());
+      }
+    };
+    final Checkpoint.Decode decoder = (id, source) -> {
+      Dictionary<Integer, Long> result = Dictionary.dictionary();
+      for (int size = source.getInt(); size > 0; size--) result = result.insert(source.getInt(), source.getLong());
+      return result;
+    };
+    final Path directory = Files.createTempDirectory("agave");
+    try {
+      final Pipe.Ref<Integer, Dictionary<Integer, Long>, Integer> ref = Pipe.partitioned("keys", SUM, input -> input % 10, 4, 64);
+      final Processor processor = ref.start(WaitStrategy.backOff());
+      for (int j = 0; j < LIMIT; j++) {
+        if (j == LIMIT / 2) ref.checkpoint(directory, j, encoder).toCompletableFuture().get(1, TimeUnit.MINUTES);
+        ref.push(so -> {}, e -> {}, j);
+      }
+      processor.drain();
+      assertEquals(true, processor.awaitTermination(1, TimeUnit.MINUTES));
+      final Checkpoint checkpoint = Checkpoint.latest(directory, decoder).asNullable();
+      assertNotNull(checkpoint);
+      assertEquals(4, checkpoint.states().size());
+      final Pipe.Ref<Integer, Dictionary<Integer, Long>, Integer> restored = Pipe.partitioned("keys", SUM, input -> input % 10, 4, 64);
+      restored.restore(checkpoint);
+      final Processor replaying = restored.start(WaitStrategy.backOff());
+      for (int j = (int) checkpoint.position(); j < LIMIT; j++) restored.push(so -> {}, e -> {}, j);
+      replaying.drain();
+      assertEquals(true, replaying.awaitTermination(1, TimeUnit.MINUTES));
+      assertEquals(ref.deref(), restored.deref());
+    } finally {
+      final List<Path> paths = new ArrayList<>();
+      Files.walk(directory).forEach(paths::add);
+      Collections.reverse(paths);
+      for (Path path : paths) Files.delete(path);
+    }
+  }
+
+  @Test
+  public void testAligned() throws Exception {
+    final int LIMIT = 100000;
+    final Pipe.Ref<Integer, Pair<Long, Long>, Pair<Integer, Integer>> ref = Pipe.fanOut(Pipe.ref("first", SUM, 64), Pipe.ref("second", SUM, 64));
+    final Processor processor = ref.start(WaitStrategy.backOff());
+    final AtomicInteger next = new AtomicInteger(0);
+    final Thread[] producers = new Thread[4];
+    for (int i = 0; i < producers.length; i++) {
+      producers[i] = new Thread(() -> {
+        int j;
+        while ((j = next.getAndIncrement()) < LIMIT) ref.push(so -> {}, e -> {}, j);
+      });
+      producers[i].start();
+    }
+    for (int i = 0; i < 20; i++) {
+      final Dictionary<String, Object> states = ref.snapshot().toCompletableFuture().get(1, TimeUnit.MINUTES);
+      assertEquals(states.lookupNullable("first"), states.lookupNullable("second"));
+    }
+    for (Thread producer : producers) producer.join();
+    processor.drain();
+    assertEquals(true, processor.awaitTermination(1, TimeUnit.MINUTES));
+  }
+
+  @Test
+  public void testAlignedGroup() throws Exception {
+    final int LIMIT = 100000;
+    final Pipe.Ref<Integer, Pair<Long, Long>, Pair<Integer, Integer>> ref = Pipe.fanOut(Pipe.striped("striped", SUM, (a, b) -> a + b, 64, 4), Pipe.ref("single", SUM, 64));
+    final Pipe.Ref<Integer, Long, Integer> shared = Pipe.ref("shared", SUM, (a, b) -> b, 64, 4);
+    final Processor processor = ref.start(WaitStrategy.backOff());
+    final Processor sharedProcessor = shared.start(WaitStrategy.backOff());
+    final AtomicInteger next = new AtomicInteger(0);
+    final Thread[] producers = new Thread[4];
+    for (int i = 0; i < producers.length; i++) {
+      producers[i] = new Thread(() -> {
+        int j;
+        while ((j = next.getAndIncrement()) < LIMIT) {
+          ref.push(so -> {}, e -> {}, j);
+          shared.push(so -> {}, e -> {}, j);
+        }
+      });
+      producers[i].start();
+    }
+    for (int i = 0; i < 20; i++) {
+      final Dictionary<String, Object> states = ref.snapshot().toCompletableFuture().get(1, TimeUnit.MINUTES);
+      assertEquals(states.lookupNullable("striped"), states.lookupNullable("single"));
+      assertNotNull(shared.snapshot().toCompletableFuture().get(1, TimeUnit.MINUTES).lookupNullable("shared"));
+    }
+    for (Thread producer : producers) producer.join();
+    processor.drain();
+    sharedProcessor.drain();
+    assertEquals(true, processor.awaitTermination(1, TimeUnit.MINUTES));
+    assertEquals(true, sharedProcessor.awaitTermination(1, TimeUnit.MINUTES));
+  }
+
+  @Test
+  public void testRejected() {
+    try {
+      Pipe.compose(Pipe.ref("first", SUM, 64), Pipe.ref(SUM, 64)).snapshot();
+      fail();
+    } catch (IllegalStateException expected) {}
+    final Pipe.Ref<Integer, Long, Integer> ref = Pipe.compose(Pipe.ref("first", SUM, 64), Pipe.ref("second", SUM, 64));
+    try {
+      ref.restore(Dictionary.<String, Object>dictionary().insert("first", 1L));
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+}
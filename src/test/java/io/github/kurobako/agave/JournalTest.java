@@ -0,0 +1,90 @@
+package io.github.kurobako.agave;
+
+import io.github.kurobako.agave.ringbuffer.Consumer;
+import io.github.kurobako.agave.ringbuffer.Journal;
+import io.github.kurobako.agave.ringbuffer.RingBuffer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class JournalTest {
+
+  @Test
+  public void testJournal() throws IOException {
+    final Path directory = Files.createTempDirectory("agave");
+    try {
+      final RingBuffer<Integer> buffer = RingBuffer.singleProducer(16);
+      final Consumer<Integer> consumer = buffer.subscribe();
+      try (Journal<Integer> journal = Journal.open(directory, 64, (data, target) -> target.putInt(data), Journal.Sync.perBatch())) {
+        for (int j = 0; j < 10; j++) {
+          final long token = buffer.claim();
+          buffer.write(token, j);
+          buffer.publish(token);
+        }
+        assertEquals(Consumer.State.WORKING, consumer.consume(journal));
+        assertEquals(10L, journal.appended());
+      }
+      try (Journal<Integer> journal = Journal.open(directory, 64, (data, target) -> target.putInt(data), Journal.Sync.none())) {
+        assertEquals(10L, journal.appended());
+        for (int j = 10; j < 15; j++) journal.consume(j, j != 14);
+      }
+      final RingBuffer<Integer> restored = RingBuffer.singleProducer(16);
+      final Consumer<Integer> replayed = restored.subscribe();
+      assertEquals(15L, Journal.replay(directory, ByteBuffer::getInt, restored));
+      final int[] expected = {0};
+      assertEquals(Consumer.State.WORKING, replayed.consume((data, more) -> {
+        assertEquals(expected[0]++, (int) data);
+        return true;
+      }));
+      assertEquals(15, expected[0]);
+    } finally {
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+        for (Path path : stream) Files.delete(path);
+      }
+      Files.delete(directory);
+    }
+  }
+
+  @Test
+  public void testClose() throws IOException {
+    final Path directory = Files.createTempDirectory("agave");
+    try {
+      final Journal.Sync sync = Journal.Sync.periodic(1, TimeUnit.HOURS);
+      final Journal<Integer> first = Journal.open(directory.resolve("first"), 64, (data, target) -> target.putInt(data), sync);
+      final Journal<Integer> second = Journal.open(directory.resolve("second"), 64, (data, target) -> target.putInt(data), sync);
+      for (int j = 0; j < 100; j++) {
+        first.consume(j, false);
+        second.consume(j, false);
+      }
+      first.close();
+      first.close();
+      try {
+        first.consume(100, false);
+        fail();
+      } catch (IllegalStateException expected) {}
+      second.close();
+      final int[] expected = {0};
+      assertEquals(100L, Journal.replay(directory.resolve("second"), ByteBuffer::getInt, (data, more) -> {
+        assertEquals(expected[0]++, (int) data);
+        return true;
+      }));
+    } finally {
+      final List<Path> paths = new ArrayList<>();
+      Files.walk(directory).forEach(paths::add);
+      Collections.reverse(paths);
+      for (Path path : paths) Files.delete(path);
+    }
+  }
+
+}
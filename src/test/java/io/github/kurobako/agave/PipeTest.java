@@ -0,0 +1,320 @@
+package io.github.kurobako.agave;
+
+import io.github.kurobako.agave.ringbuffer.Processor;
+import io.github.kurobako.agave.ringbuffer.WaitStrategy;
+import org.junit.Test;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PipeTest {
+  static final Pipe<Integer, Long, Integer> SUM = sum(input -> false);
+
+  static Pipe<Integer, Long, Integer> sum(IntPredicate failing) {
+    return new Pipe<Integer, Long, Integer>() {
+      @Override
+      public Long init() {
+        return 0L;
+      }
+
+      @Override
+      public Pair<Long, Integer> handle(Long state, Integer input) {
+        if (failing.test(input)) throw new IllegalArgumentException();
+        return Pair.pair(state + input, input);
+      }
+    };
+  }
+
+  @Test
+  public void testStriped() throws InterruptedException {
+    final int LIMIT = 100000;
+    final Pipe.Ref<Integer, Long, Integer> ref = Pipe.striped(SUM, (a, b) -> a + b, 64, 4);
+    assertEquals(4, ref.steps().asJavaUtilMap().get(ref.id()).length());
+    final Processor processor = ref.start(WaitStrategy.backOff());
+    final AtomicInteger completed = new AtomicInteger(0);
+    for (int j = 0; j < LIMIT; j++) ref.push(so -> completed.incrementAndGet(), e -> {}, j);
+    processor.drain();
+    assertEquals(true, processor.awaitTermination(1, TimeUnit.MINUTES));
+    assertEquals(LIMIT, completed.get());
+    assertEquals((long) LIMIT * (LIMIT - 1) / 2, (long) ref.deref());
+  }
+
+
+  @Test
+  public void testStripedRestart() throws InterruptedException {
+    final Pipe.Ref<Integer, Long, Integer> ref = Pipe.striped("striped", sum(input -> input < 0), (a, b) -> a + b, 64, 4).supervise(e -> Pipe.Supervision.RESTART);
+    ref.restore(Dictionary.dictionary("striped", 100L));
+    assertEquals(100L, (long) ref.deref());
+    final Processor processor = ref.start(WaitStrategy.backOff());
+    for (int j = 0; j < 1000; j++) ref.push(so -> {}, e -> {}, 1);
+    while (ref.deref() != 1100L) Thread.sleep(1);
+    ref.push(so -> {}, e -> {}, -1);
+    while (ref.metrics().lookupNullable("striped").failures(Pipe.Supervision.RESTART) == 0) Thread.sleep(1);
+    assertEquals(0L, (long) ref.deref());
+    for (int j = 0; j < 10; j++) ref.push(so -> {}, e -> {}, 1);
+    processor.drain();
+    assertEquals(true, processor.awaitTermination(1, TimeUnit.MINUTES));
+    assertNull(processor.failure());
+    assertEquals(10L, (long) ref.deref());
+  }
+
+
+  @Test
+  public void testPartitioned() throws InterruptedException {
+    final int LIMIT = 100000;
+    final Pipe<Integer, Integer, Integer> last = new Pipe<Integer, Integer, Integer>() {
+      @Override
+      public Integer init() {
+        return -1;
+      }
+
+      @Override
+      public Pair<Integer, Integer> handle(Integer state, Integer input) {
+        if (input <= state) throw new IllegalStateException();
+        return Pair.pair(input, input);
+      }
+    };
+    final Pipe.Ref<Integer, Dictionary<Integer, Integer>, Integer> ref = Pipe.partitioned(last, input -> input % 10, 4, 64);
+    assertEquals(4, ref.steps().asJavaUtilMap().size());
+    final Processor processor = ref.start(WaitStrategy.backOff());
+    final AtomicInteger completed = new AtomicInteger(0);
+    final AtomicInteger failed = new AtomicInteger(0);
+    for (int j = 0; j < LIMIT; j++) ref.push(so -> {
+      if (so.first().size() == 1 && so.second().equals(so.first().lookupNullable(so.second() % 10))) completed.incrementAndGet();
+    }, e -> failed.incrementAndGet(), j);
+    processor.drain();
+    assertEquals(true, processor.awaitTermination(1, TimeUnit.MINUTES));
+    assertNull(processor.failure());
+    assertEquals(LIMIT, completed.get());
+    assertEquals(0, failed.get());
+    final Dictionary<Integer, Integer> state = ref.deref();
+    assertSame(state, ref.deref());
+    assertEquals(10, state.size());
+    for (int k = 0; k < 10; k++) assertEquals(LIMIT - 10 + k, (int) state.lookupNullable(k));
+  }
+
+
+  @Test
+  public void testPartitionedRestart() throws InterruptedException {
+    final Pipe<Integer, Long, Integer> failing = sum(input -> input == 12);
+    final Pipe.Ref<Integer, Dictionary<Integer, Long>, Integer> ref = Pipe.partitioned(failing, input -> input % 2, 1, 64).supervise(e -> Pipe.Supervision.RESTART);
+    final Processor processor = ref.start(WaitStrategy.backOff());
+    final AtomicInteger failed = new AtomicInteger(0);
+    for (int j = 0; j < 20; j++) ref.push(so -> {}, e -> failed.incrementAndGet(), j);
+    processor.drain();
+    assertEquals(true, processor.awaitTermination(1, TimeUnit.MINUTES));
+    assertNull(processor.failure());
+    assertEquals(0, failed.get());
+    final Dictionary<Integer, Long> state = ref.deref();
+    assertEquals(14L + 16 + 18, (long) state.lookupNullable(0));
+    assertEquals(100L, (long) state.lookupNullable(1));
+    assertEquals(1, ref.metrics().asJavaUtilMap().values().iterator().next().failures(Pipe.Supervision.RESTART));
+  }
+
+  @Test
+  public void testJoin() throws InterruptedException {
+    final int LIMIT = 100000;
+    final Pipe<Integer, Long, Integer> failing = sum(input -> input % 1000 >= 998);
+    final Pipe.Ref<Integer, Long, Integer> resuming = Pipe.ref(failing, 64).supervise(e -> Pipe.Supervision.RESUME);
+    final Pipe.Ref<Integer, Pair<Long, Long>, Pair<Integer, Integer>> fanOut = Pipe.fanOut(Pipe.ref(failing, 64).supervise(e -> Pipe.Supervision.RESUME), resuming, 16);
+    final Pipe.Ref<Pair<Integer, Integer>, Pair<Long, Long>, Pair<Integer, Integer>> zip = Pipe.zip(Pipe.ref(failing, 64), Pipe.ref(failing, 64), 16);
+    final Processor processor = Pipe.compose(fanOut, zip).start(WaitStrategy.backOff());
+    final AtomicInteger completed = new AtomicInteger(0);
+    final AtomicInteger failed = new AtomicInteger(0);
+    for (int j = 0; j < LIMIT; j++) {
+      if (j % 2 == 0) fanOut.push(so -> completed.incrementAndGet(), e -> failed.incrementAndGet(), j);
+      else zip.push(so -> completed.incrementAndGet(), e -> failed.incrementAndGet(), Pair.pair(j, j));
+    }
+    processor.drain();
+    assertEquals(true, processor.awaitTermination(1, TimeUnit.MINUTES));
+    assertEquals(LIMIT - 2 * LIMIT / 1000, completed.get());
+    assertEquals(LIMIT / 1000, failed.get());
+    assertEquals(zip.deref().first(), zip.deref().second());
+  }
+
+
+  @Test
+  public void testRejectedBranch() throws InterruptedException {
+    final Pipe.Ref<Integer, Long, Integer> first = Pipe.ref(SUM, 64);
+    final Pipe.Ref<Integer, Long, Integer> second = Pipe.ref(SUM, 4);
+    final Pipe.Ref<Integer, Pair<Long, Long>, Pair<Integer, Integer>> ref = Pipe.fanOut(first, second);
+    final AtomicInteger rejected = new AtomicInteger(0);
+    for (int j = 0; j < 16; j++) {
+      assertTrue(ref.tryPush(so -> {}, e -> {
+        if (e instanceof RejectedExecutionException) rejected.incrementAndGet();
+      }, j));
+    }
+    assertTrue(rejected.get() > 0);
+    final Processor processor = ref.start(WaitStrategy.backOff());
+    processor.drain();
+    assertEquals(true, processor.awaitTermination(1, TimeUnit.MINUTES));
+    assertEquals(16 - rejected.get(), ref.metrics().lookupNullable(second.id()).handled());
+    assertEquals(16, ref.metrics().lookupNullable(first.id()).handled());
+  }
+
+
+  @Test
+  public void testPipeMetrics() throws InterruptedException {
+    final int LIMIT = 10000;
+    final Pipe<Integer, Long, Integer> failing = sum(input -> input % 100 == 99);
+    final Pipe.Ref<Integer, Long, Integer> first = Pipe.ref("first", failing, 64);
+    final Pipe.Ref<Integer, Long, Integer> second = Pipe.ref("second", failing, 64);
+    final Pipe.Ref<Integer, Long, Integer> ref = Pipe.compose(first, second).supervise(e -> Pipe.Supervision.RESUME);
+    assertNotNull(ref.steps().lookupNullable("first"));
+    assertNotNull(ref.steps().lookupNullable("second"));
+    final Processor processor = ref.start(WaitStrategy.backOff());
+    for (int j = 0; j < LIMIT; j++) ref.push(so -> {}, e -> {}, j);
+    processor.drain();
+    assertEquals(true, processor.awaitTermination(1, TimeUnit.MINUTES));
+    final PipeMetrics metrics = ref.metrics().lookupNullable("first");
+    assertNotNull(metrics);
+    assertEquals(LIMIT - LIMIT / 100, metrics.handled());
+    assertEquals(LIMIT / 100, metrics.failures(Pipe.Supervision.RESUME));
+    assertEquals(0, metrics.failures(Pipe.Supervision.ESCALATE));
+    assertEquals(0, metrics.depth());
+    long recorded = 0;
+    for (long count : metrics.latencies()) recorded += count;
+    assertEquals(metrics.handled(), recorded);
+    assertTrue(metrics.latencyPercentile(50.0) <= metrics.latencyPercentile(99.0));
+    assertEquals(LIMIT - LIMIT / 100, ref.metrics().lookupNullable("second").handled());
+  }
+
+
+  @Test
+  public void testChain() throws InterruptedException {
+    final int LIMIT = 100000;
+    final Pipe.Ref<Integer, Long, Integer> ref = Pipe.chain(SUM).fuse(SUM).fuse(SUM).then(SUM).fuse(SUM).build("chain", 64);
+    assertEquals(2, ref.steps().asJavaUtilMap().size());
+    assertNotNull(ref.steps().lookupNullable("chain/0"));
+    assertNotNull(ref.steps().lookupNullable("chain/1"));
+    final Processor processor = ref.start(WaitStrategy.backOff());
+    final AtomicInteger completed = new AtomicInteger(0);
+    for (int j = 0; j < LIMIT; j++) ref.push(so -> completed.incrementAndGet(), e -> {}, j);
+    processor.drain();
+    assertEquals(true, processor.awaitTermination(1, TimeUnit.MINUTES));
+    assertEquals(LIMIT, completed.get());
+    assertEquals((long) LIMIT * (LIMIT - 1) / 2, (long) ref.deref());
+  }
+
+
+  @Test
+  public void testFusedRestart() throws Exception {
+    final Pipe.Ref<Integer, Long, Integer> ref = Pipe.chain(SUM).fuse(sum(input -> input == 5)).build("fused", 64).supervise(e -> Pipe.Supervision.RESTART);
+    final Processor processor = ref.start(WaitStrategy.backOff());
+    for (int j = 0; j < 10; j++) ref.push(so -> {}, e -> {}, j);
+    final Dictionary<String, Object> states = ref.snapshot().toCompletableFuture().get(1, TimeUnit.MINUTES);
+    processor.drain();
+    assertEquals(true, processor.awaitTermination(1, TimeUnit.MINUTES));
+    assertNull(processor.failure());
+    assertEquals(Sequence.sequence(45L, 30L), states.lookupNullable("fused/0"));
+    assertEquals(30L, (long) ref.deref());
+    try {
+      Pipe.chain(SUM).then(SUM, (a, b) -> a + b, 2).fuse(SUM);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+
+  @Test
+  public void testBatchedPipe() throws InterruptedException {
+    final int LIMIT = 100000;
+    final AtomicInteger largest = new AtomicInteger(0);
+    final Pipe.Batch<Integer, Long, Long> sum = new Pipe.Batch<Integer, Long, Long>() {
+      @Override
+      public Long init() {
+        return 0L;
+      }
+
+      @Override
+      public Pair<Long, Sequence<Long>> handle(Long state, Sequence<Integer> inputs) {
+        if (inputs.length() > largest.get()) largest.set(inputs.length());
+        long total = state;
+        Sequence<Long> outputs = Sequence.sequence();
+        for (Integer input : inputs) {
+          total += input;
+          outputs = outputs.inject(total);
+        }
+        return Pair.pair(total, outputs);
+      }
+    };
+    final Pipe.Ref<Integer, Long, Long> ref = Pipe.batched(sum, 256, 32);
+    final Processor processor = ref.start(WaitStrategy.backOff());
+    final AtomicInteger completed = new AtomicInteger(0);
+    final AtomicInteger mismatched = new AtomicInteger(0);
+    final AtomicLong last = new AtomicLong(-1L);
+    for (int j = 0; j < LIMIT; j++) ref.push(so -> {
+      if (so.second() <= last.get()) mismatched.incrementAndGet();
+      last.set(so.second());
+      completed.incrementAndGet();
+    }, e -> {}, j);
+    processor.drain();
+    assertEquals(true, processor.awaitTermination(1, TimeUnit.MINUTES));
+    assertNull(processor.failure());
+    assertEquals(0, mismatched.get());
+    assertEquals(LIMIT, completed.get());
+    assertEquals((long) LIMIT * (LIMIT - 1) / 2, (long) ref.deref());
+    assertTrue(largest.get() <= 32);
+    final PipeMetrics metrics = ref.metrics().asJavaUtilMap().values().iterator().next();
+    assertEquals(LIMIT, metrics.handled());
+    long recorded = 0;
+    for (long count : metrics.latencies()) recorded += count;
+    assertEquals(LIMIT, recorded);
+  }
+
+
+  @Test
+  public void testInto() throws InterruptedException {
+    final int LIMIT = 100000;
+    final Pipe.Into<long[], long[], long[]> sum = new Pipe.Into<long[], long[], long[]>() {
+      @Override
+      public long[] init() {
+        return new long[1];
+      }
+
+      @Override
+      public long[] handle(long[] state, long[] input, long[] output) {
+        if (input[0] < 0) throw new IllegalArgumentException();
+        state[0] += input[0];
+        output[0] = input[0] * 2;
+        return state;
+      }
+    };
+    final AtomicInteger completed = new AtomicInteger(0);
+    final AtomicInteger failed = new AtomicInteger(0);
+    final AtomicInteger escalated = new AtomicInteger(0);
+    final AtomicLong outputs = new AtomicLong(0L);
+    final Pipe.Ref<long[], long[], long[]> ref = Pipe.chain(sum, () -> new long[1]).fuse(sum, () -> new long[1]).build("into", 64)
+      .supervise(e -> {
+        failed.incrementAndGet();
+        return Pipe.Supervision.RESUME;
+      });
+    assertEquals(1, ref.steps().asJavaUtilMap().size());
+    assertNotNull(ref.steps().lookupNullable("into/0"));
+    final Processor processor = ref.start(WaitStrategy.backOff());
+    for (int j = 0; j < LIMIT; j++) ref.push(so -> {
+      outputs.addAndGet(so.second()[0]);
+      completed.incrementAndGet();
+    }, e -> escalated.incrementAndGet(), new long[] {j % 1000 == 999 ? -1 : j});
+    processor.drain();
+    assertEquals(true, processor.awaitTermination(1, TimeUnit.MINUTES));
+    assertNull(processor.failure());
+    long expected = 0L;
+    for (int j = 0; j < LIMIT; j++) if (j % 1000 != 999) expected += j;
+    assertEquals(0, escalated.get());
+    assertEquals(LIMIT / 1000, failed.get());
+    assertEquals(LIMIT - LIMIT / 1000, completed.get());
+    assertEquals(expected * 4, outputs.get());
+    assertEquals(expected * 2, ref.deref()[0]);
+  }
+
+}
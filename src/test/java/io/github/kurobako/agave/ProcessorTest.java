@@ -0,0 +1,67 @@
+package io.github.kurobako.agave;
+
+import io.github.kurobako.agave.ringbuffer.Consumer;
+import io.github.kurobako.agave.ringbuffer.Processor;
+import io.github.kurobako.agave.ringbuffer.WaitStrategy;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static io.github.kurobako.agave.PipeTest.SUM;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ProcessorTest {
+
+  @Test
+  public void testProcessor() throws InterruptedException {
+    final int LIMIT = 100000;
+    final Pipe.Ref<Integer, Long, Integer> ref = Pipe.compose(Pipe.ref(SUM, 64), Pipe.ref(SUM, 64));
+    final Processor processor = ref.start(WaitStrategy.backOff());
+    final AtomicInteger completed = new AtomicInteger(0);
+    for (int j = 0; j < LIMIT; j++) ref.push(so -> completed.incrementAndGet(), e -> {}, j);
+    processor.drain();
+    assertEquals(true, processor.awaitTermination(1, TimeUnit.MINUTES));
+    assertNull(processor.failure());
+    assertEquals(LIMIT, completed.get());
+    assertEquals((long) LIMIT * (LIMIT - 1) / 2, (long) ref.deref());
+    long working = 0;
+    for (List<Processor.Utilization> step : processor.utilization().values()) {
+      assertEquals(1, step.size());
+      working += step.get(0).working();
+    }
+    assertEquals(true, working > 1);
+  }
+
+  @Test
+  public void testFailure() throws InterruptedException {
+    final AtomicInteger calls = new AtomicInteger(0);
+    final IllegalStateException thrown = new IllegalStateException();
+    final Map<String, List<Supplier<Consumer.State>>> steps = new LinkedHashMap<>();
+    steps.put("failing", Collections.singletonList(() -> {
+      if (calls.incrementAndGet() == 100) throw thrown;
+      return Consumer.State.WORKING;
+    }));
+    steps.put("idle", Collections.singletonList(() -> Consumer.State.IDLE));
+    final Processor processor = Processor.start(steps, WaitStrategy.backOff(), runnable -> {
+      final Thread result = new Thread(runnable);
+      result.setUncaughtExceptionHandler((thread, e) -> {});
+      return result;
+    });
+    while (processor.failure() == null) Thread.sleep(1);
+    processor.drain();
+    assertEquals(true, processor.awaitTermination(1, TimeUnit.MINUTES));
+    assertSame(thrown, processor.failure());
+    assertSame(thrown, processor.utilization().get("failing").get(0).failure());
+    assertNull(processor.utilization().get("idle").get(0).failure());
+    assertEquals(100, calls.get());
+  }
+
+}
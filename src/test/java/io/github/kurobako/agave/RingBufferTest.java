@@ -1,13 +1,51 @@
 package io.github.kurobako.agave;
 
+import io.github.kurobako.agave.ringbuffer.BufferMetrics;
 import io.github.kurobako.agave.ringbuffer.Consume;
 import io.github.kurobako.agave.ringbuffer.Consumer;
+import io.github.kurobako.agave.ringbuffer.LongConsumer;
+import io.github.kurobako.agave.ringbuffer.LongRingBuffer;
+import io.github.kurobako.agave.ringbuffer.MappedConsumer;
+import io.github.kurobako.agave.ringbuffer.MappedRingBuffer;
+import io.github.kurobako.agave.ringbuffer.Processor;
 import io.github.kurobako.agave.ringbuffer.RingBuffer;
+import io.github.kurobako.agave.ringbuffer.ShardedRingBuffer;
+import io.github.kurobako.agave.ringbuffer.Topology;
+import io.github.kurobako.agave.ringbuffer.WaitStrategy;
 import org.junit.Test;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class RingBufferTest {
 
@@ -49,4 +87,600 @@ public class RingBufferTest {
       assertEquals(j, array[j]);
     }
   }
+
+  @Test
+  public void testAwait() throws InterruptedException {
+    final int LIMIT = 100000;
+    final WaitStrategy strategy = WaitStrategy.blocking();
+    final RingBuffer<Integer> buffer = RingBuffer.singleProducer(64, strategy::signal);
+    final Consumer<Integer> consumer = buffer.subscribe();
+    final AtomicInteger consumed = new AtomicInteger(0);
+    final AtomicInteger mismatched = new AtomicInteger(0);
+    Consume<Integer> consume = (data, more) -> {
+      if (data != consumed.getAndIncrement()) mismatched.incrementAndGet();
+      return true;
+    };
+    Thread consumerThread = new Thread(() -> {
+      while (consumed.get() < LIMIT) consumer.await(consume, strategy);
+    });
+    consumerThread.start();
+    for (int j = 0; j < LIMIT; j++) {
+      long token = buffer.claim(WaitStrategy.yielding());
+      buffer.write(token, j);
+      buffer.publish(token);
+    }
+    consumerThread.join();
+    assertEquals(LIMIT, consumed.get());
+    assertEquals(0, mismatched.get());
+  }
+
+  @Test
+  public void testBatchedPublish() throws InterruptedException {
+    for (int size : new int[] {16, 256}) {
+      final long LIMIT = 1024 * 1024;
+      final RingBuffer<Long> buffer = RingBuffer.multiProducerBatched(size);
+      final Consumer<Long> consumer = buffer.subscribe();
+      Runnable publish = () -> {
+        final Random random = new Random();
+        while (buffer.cursor().readVolatile() < LIMIT) {
+          final int amount = 1 + random.nextInt(size / 2);
+          final long to = buffer.claim(amount);
+          for (long token = to - amount + 1; token <= to; token++) buffer.write(token, token);
+          buffer.publish(to - amount + 1, to);
+        }
+      };
+      Thread firstPublisher = new Thread(publish);
+      Thread secondPublisher = new Thread(publish);
+      firstPublisher.start();
+      secondPublisher.start();
+      final long[] expected = {0};
+      final WaitStrategy strategy = WaitStrategy.yielding();
+      while (expected[0] <= LIMIT) {
+        consumer.await((data, more) -> {
+          assertEquals(expected[0]++, (long) data);
+          return true;
+        }, strategy);
+      }
+      firstPublisher.join();
+      secondPublisher.join();
+    }
+  }
+
+  @Test
+  public void testManySubscribers() throws InterruptedException {
+    final long LIMIT = 256 * 1024;
+    final int SUBSCRIBERS = 40;
+    final RingBuffer<Long> buffer = RingBuffer.singleProducer(256);
+    final Thread[] consumerThreads = new Thread[SUBSCRIBERS];
+    final AtomicInteger mismatched = new AtomicInteger(0);
+    for (int j = 0; j < SUBSCRIBERS; j++) {
+      final Consumer<Long> consumer = buffer.subscribe();
+      final long leaveAt = (j % 4 == 0) ? LIMIT / (j + 2) : LIMIT;
+      consumerThreads[j] = new Thread(() -> {
+        final long[] expected = {0};
+        final WaitStrategy strategy = WaitStrategy.yielding();
+        while (expected[0] < leaveAt) {
+          consumer.await((data, more) -> {
+            if (data != expected[0]++) mismatched.incrementAndGet();
+            return true;
+          }, strategy);
+        }
+        if (leaveAt < LIMIT) buffer.unsubscribe(consumer);
+      });
+      consumerThreads[j].start();
+    }
+    for (long j = 0; j < LIMIT; j++) {
+      final long token = buffer.claim(WaitStrategy.yielding());
+      buffer.write(token, j);
+      buffer.publish(token);
+    }
+    for (Thread consumerThread : consumerThreads) consumerThread.join();
+    assertEquals(0, mismatched.get());
+    final Consumer<Long> late = buffer.subscribe();
+    assertEquals(LIMIT - 1, late.cursor().readVolatile());
+    assertEquals(true, buffer.unsubscribe(late));
+    assertEquals(false, buffer.unsubscribe(late));
+  }
+
+  @Test
+  public void testLargeParallelGroup() throws InterruptedException {
+    final int LIMIT = 256 * 1024;
+    final int WORKERS = 100;
+    final RingBuffer<Integer> buffer = RingBuffer.multiProducer(1024);
+    final Consumer<Integer>[] workers = buffer.subscribe(WORKERS);
+    final Consumer<Integer> downstream = buffer.subscribe(workers[0].cursor());
+    final AtomicIntegerArray seen = new AtomicIntegerArray(LIMIT);
+    final AtomicInteger consumed = new AtomicInteger(0);
+    final AtomicInteger mismatched = new AtomicInteger(0);
+    final Thread[] workerThreads = new Thread[WORKERS];
+    for (int j = 0; j < WORKERS; j++) {
+      final Consumer<Integer> worker = workers[j];
+      workerThreads[j] = new Thread(() -> {
+        final Consume<Integer> consume = (data, more) -> {
+          if (seen.getAndIncrement(data) != 0) mismatched.incrementAndGet();
+          consumed.incrementAndGet();
+          return true;
+        };
+        while (consumed.get() < LIMIT) {
+          if (worker.consume(consume) != Consumer.State.WORKING) Thread.yield();
+        }
+      });
+      workerThreads[j].start();
+    }
+    final Thread publisher = new Thread(() -> {
+      for (int j = 0; j < LIMIT; j++) {
+        final long token = buffer.claim();
+        buffer.write(token, j);
+        buffer.publish(token);
+      }
+    });
+    publisher.start();
+    final int[] expected = {0};
+    final WaitStrategy strategy = WaitStrategy.yielding();
+    while (expected[0] < LIMIT) {
+      downstream.await((data, more) -> {
+        if (data != expected[0]++ || seen.get(data) != 1) mismatched.incrementAndGet();
+        return true;
+      }, strategy);
+    }
+    publisher.join();
+    for (Thread workerThread : workerThreads) workerThread.join();
+    assertEquals(LIMIT, consumed.get());
+    assertEquals(0, mismatched.get());
+  }
+
+  @Test
+  public void testBatchedParallelGroup() throws InterruptedException {
+    final int LIMIT = 256 * 1024;
+    final int WORKERS = 4;
+    final int BATCH = 16;
+    final RingBuffer<Integer> buffer = RingBuffer.multiProducer(1024);
+    final Consumer<Integer>[] workers = buffer.subscribe(WORKERS, BATCH);
+    final AtomicIntegerArray seen = new AtomicIntegerArray(LIMIT);
+    final AtomicInteger consumed = new AtomicInteger(0);
+    final AtomicInteger mismatched = new AtomicInteger(0);
+    final Thread[] workerThreads = new Thread[WORKERS];
+    for (int j = 0; j < WORKERS; j++) {
+      final Consumer<Integer> worker = workers[j];
+      workerThreads[j] = new Thread(() -> {
+        final int[] run = {0, -1};
+        final Consume<Integer> consume = (data, more) -> {
+          if (seen.getAndIncrement(data) != 0) mismatched.incrementAndGet();
+          if (run[0] > 0 && data != run[1] + 1) mismatched.incrementAndGet();
+          if (++run[0] > BATCH) mismatched.incrementAndGet();
+          run[0] = more ? run[0] : 0;
+          run[1] = data;
+          consumed.incrementAndGet();
+          return true;
+        };
+        while (consumed.get() < LIMIT) {
+          if (worker.consume(consume) != Consumer.State.WORKING) Thread.yield();
+        }
+      });
+      workerThreads[j].start();
+    }
+    for (int j = 0; j < LIMIT; j += 8) {
+      final long to = buffer.claim(8);
+      for (long token = to - 7; token <= to; token++) buffer.write(token, (int) token);
+      buffer.publish(to - 7, to);
+    }
+    for (Thread workerThread : workerThreads) workerThread.join();
+    assertEquals(LIMIT, consumed.get());
+    assertEquals(0, mismatched.get());
+    assertEquals(LIMIT - 1, workers[0].cursor().readVolatile());
+  }
+
+  @Test
+  public void testParallelGroupFailure() {
+    final int LIMIT = 64;
+    final RingBuffer<Integer> buffer = RingBuffer.multiProducer(LIMIT);
+    final Consumer<Integer>[] workers = buffer.subscribe(2, 16);
+    for (int j = 0; j < LIMIT; j++) {
+      final long token = buffer.claim();
+      buffer.write(token, j);
+      buffer.publish(token);
+    }
+    final int[] seen = new int[LIMIT];
+    final boolean[] thrown = {false};
+    final Consume<Integer> consume = (data, more) -> {
+      if (data == 5 && !thrown[0]) {
+        thrown[0] = true;
+        throw new IllegalStateException();
+      }
+      seen[data]++;
+      return true;
+    };
+    try {
+      workers[0].consume(consume);
+      fail();
+    } catch (IllegalStateException expected) {}
+    assertEquals(4, workers[0].cursor().readVolatile());
+    assertEquals(Consumer.State.WORKING, workers[1].consume(consume));
+    assertEquals(Consumer.State.IDLE, workers[0].consume(consume));
+    for (int count : seen) assertEquals(1, count);
+    assertEquals(LIMIT - 1, workers[0].cursor().readVolatile());
+  }
+
+  @Test
+  public void testTopology() throws InterruptedException {
+    final int LIMIT = 100000;
+    final RingBuffer<Integer> buffer = RingBuffer.multiProducer(16);
+    final Topology.Builder<Integer> builder = buffer.topology();
+    final AtomicInteger journaled = new AtomicInteger(-1);
+    final AtomicInteger replicated = new AtomicInteger(-1);
+    final AtomicIntegerArray handled = new AtomicIntegerArray(LIMIT);
+    final AtomicInteger published = new AtomicInteger(-1);
+    final AtomicInteger mismatched = new AtomicInteger(0);
+    final Topology.Stage journal = builder.stage("journal", (data, more) -> {
+      if (journaled.get() + 1 != data) mismatched.incrementAndGet();
+      journaled.lazySet(data);
+      return true;
+    });
+    final Topology.Stage replicate = builder.stage("replicate", (data, more) -> {
+      if (replicated.get() + 1 != data) mismatched.incrementAndGet();
+      replicated.lazySet(data);
+      return true;
+    });
+    final Topology.Stage logic = builder.stage("logic", 4, 8, (data, more) -> {
+      if (journaled.get() < data || replicated.get() < data) mismatched.incrementAndGet();
+      handled.incrementAndGet(data);
+      return true;
+    }, journal, replicate);
+    builder.stage("publish", (data, more) -> {
+      if (handled.get(data) != 1 || published.get() + 1 != data) mismatched.incrementAndGet();
+      published.lazySet(data);
+      return true;
+    }, logic);
+    final Topology<Integer> topology = builder.build();
+    assertEquals(4, topology.steps().get("logic").size());
+    final Processor processor = topology.start(WaitStrategy.yielding());
+    for (int j = 0; j < LIMIT; j++) {
+      final long token = buffer.claim();
+      buffer.write(token, j);
+      buffer.publish(token);
+    }
+    processor.drain();
+    assertEquals(true, processor.awaitTermination(1, TimeUnit.MINUTES));
+    assertNull(processor.failure());
+    assertEquals(0, mismatched.get());
+    assertEquals(LIMIT - 1, published.get());
+  }
+
+  @Test
+  public void testSharded() throws InterruptedException {
+    final int PRODUCERS = 8;
+    final int LIMIT = 100000;
+    final ShardedRingBuffer<long[]> buffer = ShardedRingBuffer.multiProducer(4, 64, () -> new long[2]);
+    final Consumer<long[]> consumer = buffer.subscribe();
+    final Thread[] producers = new Thread[PRODUCERS];
+    for (int i = 0; i < PRODUCERS; i++) {
+      final int producer = i;
+      producers[i] = new Thread(() -> {
+        for (int j = 0; j < LIMIT; j++) {
+          final long token = buffer.claim();
+          final long[] entry = buffer.read(token);
+          entry[0] = producer;
+          entry[1] = j;
+          buffer.publish(token);
+        }
+      });
+      producers[i].start();
+    }
+    final long[] expected = new long[PRODUCERS];
+    int consumed = 0;
+    while (consumed < PRODUCERS * LIMIT) {
+      final int[] batch = {0};
+      consumer.consume((data, more) -> {
+        assertEquals(expected[(int) data[0]]++, data[1]);
+        batch[0]++;
+        return true;
+      });
+      consumed += batch[0];
+      if (batch[0] == 0) Thread.yield();
+    }
+    for (Thread producer : producers) producer.join();
+    for (long count : expected) assertEquals(LIMIT, count);
+    assertEquals(0L, consumer.metrics().lag());
+    assertEquals(PRODUCERS * LIMIT - 1, consumer.metrics().cursor());
+    assertTrue(buffer.unsubscribe(consumer));
+  }
+
+  @Test
+  public void testReleasing() {
+    final RingBuffer<Object> buffer = RingBuffer.singleProducer(4);
+    final Consumer<Object> first = buffer.subscribe();
+    final Consumer<Object> last = buffer.subscribeReleasing(first.cursor());
+    for (int j = 0; j < 3; j++) {
+      final long token = buffer.claim();
+      buffer.write(token, new Object());
+      buffer.publish(token);
+    }
+    assertEquals(Consumer.State.WORKING, first.consume((data, more) -> true));
+    assertNotNull(buffer.read(0));
+    assertEquals(Consumer.State.WORKING, last.consume((data, more) -> data != null));
+    for (int j = 0; j < 3; j++) assertNull(buffer.read(j));
+    final RingBuffer<int[]> pooled = RingBuffer.multiProducer(4, () -> new int[1], entry -> entry[0] = -1);
+    final Consumer<int[]>[] group = pooled.subscribeReleasing(2, 4);
+    final long to = pooled.claim(2);
+    pooled.read(to - 1)[0] = 1;
+    pooled.read(to)[0] = 2;
+    pooled.publish(to - 1, to);
+    assertEquals(Consumer.State.WORKING, group[1].consume((data, more) -> data[0] > 0));
+    assertEquals(-1, pooled.read(to - 1)[0]);
+    assertEquals(-1, pooled.read(to)[0]);
+    try {
+      RingBuffer.multiProducer(4, () -> new int[1]).subscribeReleasing();
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @Test
+  public void testReplay() {
+    final RingBuffer<Integer> buffer = RingBuffer.singleProducer(16);
+    buffer.retain(8);
+    final Consumer<Integer> live = buffer.subscribe();
+    for (int j = 0; j < 20; j++) {
+      final long token = buffer.claim();
+      buffer.write(token, j);
+      buffer.publish(token);
+      assertEquals(Consumer.State.WORKING, live.consume((data, more) -> true));
+    }
+    final Consumer<Integer> resident = buffer.subscribeResident();
+    final Consumer<Integer> from = buffer.subscribeFrom(15);
+    try {
+      buffer.subscribeFrom(5);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+    final int[] expected = {12};
+    assertEquals(Consumer.State.WORKING, resident.consume((data, more) -> {
+      assertEquals(expected[0]++, (int) data);
+      return true;
+    }));
+    assertEquals(20, expected[0]);
+    expected[0] = 15;
+    assertEquals(Consumer.State.WORKING, from.consume((data, more) -> {
+      assertEquals(expected[0]++, (int) data);
+      return true;
+    }));
+    assertEquals(20, expected[0]);
+    for (int j = 0; j < 8; j++) assertTrue(buffer.tryClaim() >= 0);
+    assertEquals(-1L, buffer.tryClaim());
+    final RingBuffer<Integer> claimed = RingBuffer.singleProducer(16);
+    claimed.claim();
+    try {
+      claimed.retain(8);
+      fail();
+    } catch (IllegalStateException e) {}
+    final RingBuffer<Integer> releasing = RingBuffer.singleProducer(16);
+    releasing.subscribeReleasing();
+    try {
+      releasing.retain(8);
+      fail();
+    } catch (IllegalStateException e) {}
+    final RingBuffer<Integer> retaining = RingBuffer.singleProducer(16);
+    retaining.retain(8);
+    try {
+      retaining.subscribeReleasing();
+      fail();
+    } catch (IllegalStateException e) {}
+    try {
+      RingBuffer.<Integer>singleProducerElastic(16, 64, false).retain(8);
+      fail();
+    } catch (IllegalStateException e) {}
+  }
+
+  @Test
+  public void testMetrics() throws JMException {
+    final RingBuffer<Integer> buffer = RingBuffer.singleProducer(16);
+    final Consumer<Integer> first = buffer.subscribe();
+    final Consumer<Integer> second = buffer.subscribe(first.cursor());
+    final BufferMetrics bufferMetrics = buffer.metrics();
+    final ObjectName name = bufferMetrics.register("testMetrics");
+    try {
+      for (int j = 0; j < 16; j++) {
+        final long token = buffer.tryClaim();
+        buffer.write(token, j);
+        buffer.publish(token);
+      }
+      assertEquals(-1L, buffer.tryClaim());
+      assertEquals(1L, bufferMetrics.failedClaims());
+      assertEquals(16L, bufferMetrics.occupancy());
+      assertEquals(16L, second.metrics().lag());
+      assertEquals(Consumer.State.GATING, second.consume((data, more) -> true));
+      assertEquals(1L, second.metrics().gating());
+      assertEquals(Consumer.State.WORKING, first.consume((data, more) -> true));
+      assertArrayEquals(new long[] {0, 0, 0, 0, 1}, first.metrics().batchSizes());
+      assertEquals(0L, first.metrics().lag());
+      assertEquals(Consumer.State.WORKING, second.consume((data, more) -> true));
+      assertEquals(0L, bufferMetrics.occupancy());
+      assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "FailedClaims"));
+    } finally {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+  }
+
+  @Test
+  public void testClaimTimeout() throws Exception {
+    final RingBuffer<Integer> buffer = RingBuffer.multiProducer(4);
+    final Consumer<Integer> consumer = buffer.subscribe();
+    for (int j = 0; j < 4; j++) buffer.publish(buffer.claim());
+    final long started = System.nanoTime();
+    assertEquals(-1L, buffer.claim(1, 10, TimeUnit.MILLISECONDS));
+    assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(10));
+    assertEquals(-1L, buffer.claim(1, 0, TimeUnit.MILLISECONDS));
+    final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    try {
+      final CompletableFuture<Long> claimed = buffer.claimAsync(2, executor).toCompletableFuture();
+      Thread.sleep(10);
+      assertFalse(claimed.isDone());
+      assertEquals(Consumer.State.WORKING, consumer.consume((data, more) -> true));
+      assertEquals(5L, (long) claimed.get(1, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testElastic() {
+    final RingBuffer<Integer> buffer = RingBuffer.singleProducerElastic(16, 64, true);
+    final Consumer<Integer> consumer = buffer.subscribe();
+    final BufferMetrics metrics = buffer.metrics();
+    int failed = 0;
+    for (int j = 0; j < 100; j++) {
+      long token;
+      while ((token = buffer.tryClaim()) < 0) failed++;
+      buffer.write(token, j);
+      buffer.publish(token);
+    }
+    assertEquals(64, metrics.capacity());
+    assertEquals(failed, metrics.failedClaims());
+    final int[] expected = {0};
+    assertEquals(Consumer.State.WORKING, consumer.consume((data, more) -> {
+      assertEquals(expected[0]++, (int) data);
+      return true;
+    }));
+    assertEquals(100, expected[0]);
+    for (int j = 100; j < 4096; j++) {
+      final long token = buffer.claim();
+      buffer.write(token, j);
+      buffer.publish(token);
+      assertEquals(Consumer.State.WORKING, consumer.consume((data, more) -> {
+        assertEquals(expected[0]++, (int) data);
+        return true;
+      }));
+    }
+    assertEquals(16, metrics.capacity());
+  }
+
+  @Test
+  public void testPrimitive() throws InterruptedException {
+    final long LIMIT = 1024 * 1024;
+    final LongRingBuffer buffer = LongRingBuffer.multiProducer(1000);
+    final LongConsumer consumer = buffer.subscribe();
+    Thread publisher = new Thread(() -> {
+      for (long j = 0; j < LIMIT; j += 4) {
+        final long to = buffer.claim(4);
+        for (long token = to - 3; token <= to; token++) buffer.write(token, token * 3);
+        buffer.publish(to - 3, to);
+      }
+    });
+    publisher.start();
+    final long[] expected = {0};
+    final WaitStrategy strategy = WaitStrategy.backOff();
+    while (expected[0] < LIMIT) {
+      consumer.await((data, more) -> {
+        assertEquals(3 * expected[0]++, data);
+        return true;
+      }, strategy);
+    }
+    publisher.join();
+  }
+
+  @Test
+  public void testMapped() throws IOException, InterruptedException {
+    final long LIMIT = 1024 * 1024;
+    final Path file = Files.createTempFile("agave", ".rb");
+    try (MappedRingBuffer producerSide = MappedRingBuffer.multiProducer(file, 256, 12, 4); MappedRingBuffer consumerSide = MappedRingBuffer.open(file)) {
+      final MappedConsumer consumer = consumerSide.subscribe();
+      Thread publisher = new Thread(() -> {
+        final MappedRingBuffer.Slice slice = producerSide.slice();
+        for (long j = 0; j < LIMIT; j++) {
+          final long token = producerSide.claim();
+          slice.wrap(token).putLong(0, j).putInt(8, (int) -j);
+          producerSide.publish(token);
+        }
+      });
+      publisher.start();
+      final long[] expected = {0};
+      final WaitStrategy strategy = WaitStrategy.yielding();
+      while (expected[0] < LIMIT) {
+        consumer.await((data, more) -> {
+          assertEquals(expected[0], data.getLong(0));
+          assertEquals((int) -expected[0]++, data.getInt(8));
+          return true;
+        }, strategy);
+      }
+      publisher.join();
+      assertEquals(LIMIT - 1, producerSide.cursor().readVolatile());
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void testMappedParallel() throws IOException, InterruptedException {
+    final long LIMIT = 100000;
+    final Path file = Files.createTempFile("agave", ".rb");
+    try (MappedRingBuffer producerSide = MappedRingBuffer.multiProducer(file, 64, 8, 4)) {
+      final AtomicLong grouped = new AtomicLong();
+      final AtomicLong staged = new AtomicLong();
+      final AtomicLong checked = new AtomicLong();
+      final Map<String, List<Supplier<Consumer.State>>> steps = new HashMap<>();
+      try (MappedRingBuffer consumerSide = MappedRingBuffer.open(file)) {
+        final List<Supplier<Consumer.State>> group = new ArrayList<>();
+        for (MappedConsumer consumer : consumerSide.subscribe(3, 8)) group.add(() -> consumer.consume((data, more) -> {
+          grouped.addAndGet(data.getLong(0));
+          return true;
+        }));
+        steps.put("group", group);
+        final Topology.Builder<MappedRingBuffer.Slice> builder = consumerSide.topology();
+        final Topology.Stage sum = builder.stage("sum", (data, more) -> {
+          staged.addAndGet(data.getLong(0));
+          return true;
+        });
+        builder.stage("check", 2, 4, (data, more) -> {
+          checked.incrementAndGet();
+          return true;
+        }, sum);
+        steps.putAll(builder.build().steps());
+        final Processor processor = Processor.start(steps, WaitStrategy.yielding());
+        for (long j = 0; j < LIMIT; j++) {
+          final long token = producerSide.claim();
+          producerSide.slice().wrap(token).putLong(0, j);
+          producerSide.publish(token);
+        }
+        processor.drain();
+        assertTrue(processor.awaitTermination(1, TimeUnit.MINUTES));
+        assertNull(processor.failure());
+      }
+      assertEquals(LIMIT * (LIMIT - 1) / 2, grouped.get());
+      assertEquals(LIMIT * (LIMIT - 1) / 2, staged.get());
+      assertEquals(LIMIT, checked.get());
+      for (int i = 0; i < 64; i++) assertNotEquals(-1L, producerSide.tryClaim());
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void testMappedProcess() throws IOException, InterruptedException {
+    final Path file = Files.createTempFile("agave", ".rb");
+    try (MappedRingBuffer producerSide = MappedRingBuffer.singleProducer(file, 4, 8, 2)) {
+      final Process child = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-cp", System.getProperty("java.class.path"), MappedChild.class.getName(), file.toString()).redirectErrorStream(true).start();
+      try {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8));
+        assertEquals("ready", reader.readLine());
+        for (int i = 0; i < 4; i++) producerSide.publish(producerSide.claim());
+        assertEquals(-1L, producerSide.tryClaim());
+        Thread.sleep(250);
+        assertEquals(-1L, producerSide.tryClaim());
+      } finally {
+        child.destroyForcibly().waitFor();
+      }
+      assertNotEquals(-1L, producerSide.claim(1, TimeUnit.MINUTES));
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  public static final class MappedChild {
+    public static void main(String[] args) throws IOException, InterruptedException {
+      final MappedRingBuffer buffer = MappedRingBuffer.open(Paths.get(args[0]));
+      buffer.subscribe();
+      System.out.println("ready");
+      System.out.flush();
+      Thread.sleep(Long.MAX_VALUE);
+    }
+  }
+
 }